@@ -1,9 +1,14 @@
 package org.entando.plugin.avatar.aop.logging;
 
+import org.entando.plugin.avatar.config.ApplicationProperties;
+
 import io.github.jhipster.config.JHipsterConstants;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.AfterThrowing;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
@@ -12,23 +17,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.Profiles;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.lang.reflect.Array;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Aspect for logging execution of service and repository Spring components.
  *
- * By default, it only runs with the "dev" profile.
+ * By default, it only runs with the "dev" profile, or when {@code application.profiling.enabled} is set.
+ * <p>
+ * When the {@value #PROFILING_LOGGER} logger is at DEBUG, the aspect profiles instead of logging: a sample
+ * of the calls is timed in the {@code avatar.method} timer, and logged at TRACE with their arguments and
+ * result summarized by type and size. The other calls only cost a random draw.
  */
 @Aspect
 public class LoggingAspect {
 
+    public static final String PROFILING_LOGGER = "org.entando.plugin.avatar.aop.logging.profiling";
+
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
+    private final Logger profilingLog = LoggerFactory.getLogger(PROFILING_LOGGER);
+
     private final Environment env;
 
-    public LoggingAspect(Environment env) {
+    private final MeterRegistry meterRegistry;
+
+    private final double sampleRate;
+
+    public LoggingAspect(Environment env, MeterRegistry meterRegistry, ApplicationProperties applicationProperties) {
         this.env = env;
+        this.meterRegistry = meterRegistry;
+        this.sampleRate = applicationProperties.getProfiling().getSampleRate();
     }
 
     /**
@@ -78,6 +104,9 @@ public class LoggingAspect {
      */
     @Around("applicationPackagePointcut() && springBeanPointcut()")
     public Object logAround(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (profilingLog.isDebugEnabled()) {
+            return profile(joinPoint);
+        }
         if (log.isDebugEnabled()) {
             log.debug("Enter: {}.{}() with argument[s] = {}", joinPoint.getSignature().getDeclaringTypeName(),
                 joinPoint.getSignature().getName(), Arrays.toString(joinPoint.getArgs()));
@@ -96,4 +125,80 @@ public class LoggingAspect {
             throw e;
         }
     }
+
+    /**
+     * Times a sample of the calls, the others proceeding without any allocation.
+     *
+     * @param joinPoint join point for advice.
+     * @return result.
+     * @throws Throwable the exception of the method.
+     */
+    private Object profile(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return joinPoint.proceed();
+        }
+        long start = System.nanoTime();
+        Object result = null;
+        Throwable failure = null;
+        try {
+            result = joinPoint.proceed();
+            return result;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            Signature signature = joinPoint.getSignature();
+            Timer.builder("avatar.method")
+                .description("Sampled latency of the repository, service and REST methods")
+                .tags("class", signature.getDeclaringType().getSimpleName(), "method", signature.getName(),
+                    "outcome", failure == null ? "success" : "error")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+            if (profilingLog.isTraceEnabled()) {
+                profilingLog.trace("{}.{}() took {} us with argument[s] = {} and {}", signature.getDeclaringTypeName(),
+                    signature.getName(), nanos / 1_000, summarize(joinPoint.getArgs()),
+                    failure == null ? "result = " + summarize(result) : "exception = " + summarize(failure));
+            }
+        }
+    }
+
+    /**
+     * The types and sizes of the arguments of a call, never their content.
+     */
+    static String summarize(Object[] args) {
+        StringBuilder summary = new StringBuilder("[");
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(summarize(args[i]));
+        }
+        return summary.append(']').toString();
+    }
+
+    /**
+     * The type of a value, with its size when it has one, e.g. {@code byte[1024]} or {@code List(3)}.
+     */
+    static String summarize(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Optional) {
+            return "Optional(" + ((Optional<?>) value).map(LoggingAspect::summarize).orElse("empty") + ")";
+        }
+        String type = value.getClass().getSimpleName();
+        if (value.getClass().isArray()) {
+            return value.getClass().getComponentType().getSimpleName() + "[" + Array.getLength(value) + "]";
+        } else if (value instanceof CharSequence) {
+            return type + "(" + ((CharSequence) value).length() + ")";
+        } else if (value instanceof Collection) {
+            return type + "(" + ((Collection<?>) value).size() + ")";
+        } else if (value instanceof Map) {
+            return type + "(" + ((Map<?, ?>) value).size() + ")";
+        } else if (value instanceof MultipartFile) {
+            return "MultipartFile(" + ((MultipartFile) value).getSize() + " bytes)";
+        }
+        return type;
+    }
 }
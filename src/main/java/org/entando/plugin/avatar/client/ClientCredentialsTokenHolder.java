@@ -0,0 +1,99 @@
+package org.entando.plugin.avatar.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
+import org.springframework.security.oauth2.client.token.DefaultAccessTokenRequest;
+import org.springframework.security.oauth2.client.token.grant.client.ClientCredentialsAccessTokenProvider;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the client credentials access token of the plugin, shared by all the calls to the auth service.
+ * <p>
+ * The token is reused until shortly before it expires. Callers finding it missing or about to expire
+ * are serialized, so that it is fetched once rather than once per caller. The fetch is bounded by the
+ * {@code application.auth-service} timeouts, like the calls it authenticates, so that a hung token
+ * endpoint fails the waiting callers instead of holding them.
+ */
+class ClientCredentialsTokenHolder {
+
+    /**
+     * Tokens are renewed this long before their expiration, so that they don't expire in flight.
+     */
+    private static final long EXPIRY_MARGIN_MS = 30_000;
+
+    private final OAuth2ProtectedResourceDetails resourceDetails;
+    private final AccessTokenProvider tokenProvider;
+
+    private volatile OAuth2AccessToken token;
+
+    private final Timer fetchSuccessTimer;
+    private final Timer fetchFailureTimer;
+
+    ClientCredentialsTokenHolder(OAuth2ProtectedResourceDetails resourceDetails,
+            ApplicationProperties.AuthService authService, MeterRegistry meterRegistry) {
+        this.resourceDetails = resourceDetails;
+        // same HttpURLConnection stack and timeouts as the Feign client of the auth service
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(authService.getConnectTimeoutMs());
+        requestFactory.setReadTimeout(authService.getReadTimeoutMs());
+        ClientCredentialsAccessTokenProvider tokenProvider = new ClientCredentialsAccessTokenProvider();
+        tokenProvider.setRequestFactory(requestFactory);
+        this.tokenProvider = tokenProvider;
+        this.fetchSuccessTimer = fetchTimer(meterRegistry, "success");
+        this.fetchFailureTimer = fetchTimer(meterRegistry, "failure");
+    }
+
+    private static Timer fetchTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("avatar.auth.token.fetch")
+            .description("Latency of client credentials token requests to the token endpoint")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    String getAccessToken() {
+        OAuth2AccessToken current = token;
+        if (isUsable(current)) {
+            return current.getValue();
+        }
+        synchronized (this) {
+            current = token;
+            if (!isUsable(current)) {
+                current = fetch();
+                token = current;
+            }
+            return current.getValue();
+        }
+    }
+
+    /**
+     * Forget a token rejected by the auth service, unless it was already replaced.
+     */
+    synchronized void invalidate(String rejectedToken) {
+        if (token != null && token.getValue().equals(rejectedToken)) {
+            token = null;
+        }
+    }
+
+    private static boolean isUsable(OAuth2AccessToken token) {
+        return token != null && (token.getExpiration() == null
+            || token.getExpiration().getTime() - System.currentTimeMillis() > EXPIRY_MARGIN_MS);
+    }
+
+    private OAuth2AccessToken fetch() {
+        long start = System.nanoTime();
+        try {
+            OAuth2AccessToken fetched = tokenProvider.obtainAccessToken(resourceDetails, new DefaultAccessTokenRequest());
+            fetchSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return fetched;
+        } catch (RuntimeException e) {
+            fetchFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+}
@@ -14,25 +14,147 @@
 package org.entando.plugin.avatar.client;
 
 import feign.Feign;
+import feign.FeignException;
 import feign.Param;
+import feign.Request;
 import feign.RequestLine;
+import feign.Retryer;
 import feign.jackson.JacksonDecoder;
 import feign.jackson.JacksonEncoder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.entando.plugin.avatar.config.ApplicationProperties;
 import org.entando.plugin.avatar.config.EntandoProperties;
-import org.springframework.cloud.security.oauth2.client.feign.OAuth2FeignRequestInterceptor;
-import org.springframework.security.oauth2.client.DefaultOAuth2ClientContext;
-import org.springframework.security.oauth2.client.OAuth2ClientContext;
+import org.entando.plugin.avatar.service.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.oauth2.client.token.grant.client.ClientCredentialsResourceDetails;
 import org.springframework.security.oauth2.common.AuthenticationScheme;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of the user management API of the auth service.
+ * <p>
+ * A single Feign client is shared by all calls, authenticated with the client credentials token
+ * held by a {@link ClientCredentialsTokenHolder}, so that a lookup costs one request rather than a
+ * token request plus the lookup. Users are cached for {@code application.user-cache.time-to-live-seconds},
+ * and unknown users for {@code not-found-time-to-live-seconds}.
+ */
 @Component
 public class EntandoAuthClient {
 
-    private final EntandoProperties entandoProperties;
+    private static final String CACHE_NAME = "auth.users";
+
+    /**
+     * Circuit breaker and bulkhead of the user lookups, tuned under {@code hystrix.command.auth-user-detail}.
+     * Calls run on the caller thread, the Feign timeouts bounding them, and those of the token fetch of the
+     * {@link ClientCredentialsTokenHolder} when the token is renewed within the call: a hung auth service fails
+     * the command, counting towards its circuit, rather than holding its semaphore permit.
+     */
+    private static final HystrixCommand.Setter COMMAND = HystrixCommand.Setter
+        .withGroupKey(HystrixCommandGroupKey.Factory.asKey("avatar"))
+        .andCommandKey(HystrixCommandKey.Factory.asKey("auth-user-detail"))
+        .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+            .withExecutionIsolationStrategy(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE)
+            .withExecutionTimeoutEnabled(false));
+
+    /**
+     * Same tag keys as the caches registered by Spring Boot, which Prometheus requires for a given meter name.
+     */
+    private static final Tags CACHE_TAGS = Tags.of("cacheManager", "entandoAuthClient", "name", CACHE_NAME);
+
+    private final Logger log = LoggerFactory.getLogger(EntandoAuthClient.class);
+
+    private final ClientCredentialsTokenHolder tokenHolder;
+    private final UserDetail userDetail;
+    private final Executor taskExecutor;
+    private final int bulkParallelism;
+
+    private final Cache<String, Optional<User>> cache;
+    private final SingleFlight<String, Optional<User>> userDetails;
+
+    private final Timer userDetailSuccessTimer;
+    private final Timer userDetailFailureTimer;
+
+    public EntandoAuthClient(EntandoProperties entandoProperties, ApplicationProperties applicationProperties,
+            @Qualifier("taskExecutor") Executor taskExecutor, MeterRegistry meterRegistry) {
+        this.tokenHolder = new ClientCredentialsTokenHolder(getClientCredentialsResourceDetails(entandoProperties),
+            applicationProperties.getAuthService(), meterRegistry);
+        this.userDetail = Feign.builder()
+                .requestInterceptor(template -> template.header(HttpHeaders.AUTHORIZATION,
+                    OAuth2AccessToken.BEARER_TYPE + " " + tokenHolder.getAccessToken()))
+                .encoder(new JacksonEncoder())
+                .decoder(new JacksonDecoder())
+                .options(new Request.Options(applicationProperties.getAuthService().getConnectTimeoutMs(),
+                    applicationProperties.getAuthService().getReadTimeoutMs()))
+                // failures are retried by the next lookup, not while holding the caller
+                .retryer(Retryer.NEVER_RETRY)
+                .target(UserDetail.class, entandoProperties.getAuthServiceUri());
+        this.taskExecutor = taskExecutor;
+
+        ApplicationProperties.UserCache userCache = applicationProperties.getUserCache();
+        this.bulkParallelism = Math.max(1, userCache.getBulkParallelism());
+        long timeToLive = TimeUnit.SECONDS.toNanos(userCache.getTimeToLiveSeconds());
+        long notFoundTimeToLive = TimeUnit.SECONDS.toNanos(userCache.getNotFoundTimeToLiveSeconds());
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(userCache.getMaxSize())
+            .expireAfter(new Expiry<String, Optional<User>>() {
+                @Override
+                public long expireAfterCreate(String userId, Optional<User> user, long currentTime) {
+                    return user.isPresent() ? timeToLive : notFoundTimeToLive;
+                }
+
+                @Override
+                public long expireAfterUpdate(String userId, Optional<User> user, long currentTime, long currentDuration) {
+                    return expireAfterCreate(userId, user, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String userId, Optional<User> user, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, CACHE_TAGS);
 
-    public EntandoAuthClient(EntandoProperties entandoProperties) {
-        this.entandoProperties = entandoProperties;
+        this.userDetails = new SingleFlight<>("user-detail", meterRegistry);
+        this.userDetailSuccessTimer = userDetailTimer(meterRegistry, "success");
+        this.userDetailFailureTimer = userDetailTimer(meterRegistry, "failure");
+    }
+
+    private static Timer userDetailTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("avatar.auth.user.detail")
+            .description("Latency of user detail requests to the auth service")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
     }
 
     interface UserDetail {
@@ -41,23 +163,113 @@ public class EntandoAuthClient {
         User get(@Param("userId") String userId);
     }
 
-    public User getUserDetail(String userId) {
+    /**
+     * Get a user, from the cache when possible. Concurrent lookups of the same user share a single
+     * call to the auth service.
+     *
+     * @return the user, empty if the auth service doesn't know it.
+     */
+    public Optional<User> findUserDetail(String userId) {
+        Optional<User> cached = cache.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+        return userDetails.execute(userId, () -> {
+            Optional<User> user = fetchUserDetail(userId);
+            cache.put(userId, user);
+            return user;
+        });
+    }
+
+    /**
+     * Get many users at once, looking up the ones not cached concurrently, with at most
+     * {@code application.user-cache.bulk-parallelism} calls in flight. Users whose lookup fails
+     * are left out, like unknown users.
+     *
+     * @return the known users by id.
+     */
+    public Map<String, User> findUserDetails(Collection<String> userIds) {
+        Map<String, User> users = new ConcurrentHashMap<>();
+        Queue<String> misses = new ConcurrentLinkedQueue<>();
+        for (String userId : new LinkedHashSet<>(userIds)) {
+            Optional<User> cached = cache.getIfPresent(userId);
+            if (cached == null) {
+                misses.add(userId);
+            } else {
+                cached.ifPresent(user -> users.put(userId, user));
+            }
+        }
+        if (misses.isEmpty()) {
+            return users;
+        }
 
-        // IMPORTANT: don't reuse this objects for multiple calls.
-        OAuth2ClientContext clientContext = new DefaultOAuth2ClientContext();
-        ClientCredentialsResourceDetails resourceDetails = getClientCredentialsResourceDetails();
+        Runnable worker = () -> {
+            String userId;
+            while ((userId = misses.poll()) != null) {
+                try {
+                    String id = userId;
+                    findUserDetail(id).ifPresent(user -> users.put(id, user));
+                } catch (RuntimeException e) {
+                    log.warn("Unable to get the details of user {}: {}", userId, e.getMessage());
+                }
+            }
+        };
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 1; i < Math.min(bulkParallelism, misses.size()); i++) {
+            try {
+                workers.add(CompletableFuture.runAsync(worker, taskExecutor));
+            } catch (RejectedExecutionException e) {
+                // executor saturated, fewer workers
+                break;
+            }
+        }
+        // the caller is a worker too, so that the lookups complete whatever the executor state
+        worker.run();
+        CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+        return users;
+    }
 
-        OAuth2FeignRequestInterceptor oauth2Interceptor = new OAuth2FeignRequestInterceptor(clientContext, resourceDetails);
+    private Optional<User> fetchUserDetail(String userId) {
+        long start = System.nanoTime();
+        try {
+            Optional<User> user = new HystrixCommand<Optional<User>>(COMMAND) {
+                @Override
+                protected Optional<User> run() {
+                    return getUser(userId);
+                }
+            }.execute();
+            userDetailSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return user;
+        } catch (RuntimeException e) {
+            userDetailFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
 
-        return Feign.builder()
-                .requestInterceptor(oauth2Interceptor)
-                .encoder(new JacksonEncoder())
-                .decoder(new JacksonDecoder())
-                .target(UserDetail.class, entandoProperties.getAuthServiceUri())
-                .get(userId);
+    private Optional<User> getUser(String userId) {
+        String accessToken = tokenHolder.getAccessToken();
+        try {
+            try {
+                return Optional.ofNullable(userDetail.get(userId));
+            } catch (FeignException e) {
+                if (e.status() != HttpStatus.UNAUTHORIZED.value()) {
+                    throw e;
+                }
+                // revoked before its expiration, try once more with a new one
+                tokenHolder.invalidate(accessToken);
+                return Optional.ofNullable(userDetail.get(userId));
+            }
+        } catch (FeignException e) {
+            if (e.status() == HttpStatus.NOT_FOUND.value()) {
+                // an answer, not a failure of the auth service
+                return Optional.empty();
+            }
+            throw e;
+        }
     }
 
-    private ClientCredentialsResourceDetails getClientCredentialsResourceDetails() {
+    private static ClientCredentialsResourceDetails getClientCredentialsResourceDetails(
+            EntandoProperties entandoProperties) {
         ClientCredentialsResourceDetails resourceDetails = new ClientCredentialsResourceDetails();
         resourceDetails.setAuthenticationScheme(AuthenticationScheme.header);
         resourceDetails.setClientId(entandoProperties.getClientId());
@@ -0,0 +1,143 @@
+package org.entando.plugin.avatar.client;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.httpcomponents.MicrometerHttpRequestExecutor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * HTTP client of the Gravatar proxy.
+ * <p>
+ * A single pooled client is shared by all requests, so that connections to Gravatar are kept
+ * alive and reused instead of being opened for every avatar. It is deliberately not exposed as
+ * a {@link CloseableHttpClient} bean, which the Feign and Ribbon auto-configurations would pick up.
+ */
+@Component
+public class GravatarClient implements DisposableBean {
+
+    private static final Tags CLIENT_TAGS = Tags.of("httpclient", "gravatar");
+
+    /**
+     * Circuit breaker and bulkhead of the Gravatar calls, tuned under {@code hystrix.command.gravatar}.
+     * Calls run on the caller thread, the HTTP client timeouts bounding them.
+     */
+    private static final HystrixCommand.Setter COMMAND = HystrixCommand.Setter
+        .withGroupKey(HystrixCommandGroupKey.Factory.asKey("avatar"))
+        .andCommandKey(HystrixCommandKey.Factory.asKey("gravatar"))
+        .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+            .withExecutionIsolationStrategy(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE)
+            .withExecutionTimeoutEnabled(false));
+
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+
+    public GravatarClient(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        ApplicationProperties.Gravatar gravatar = applicationProperties.getGravatar();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(gravatar.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(gravatar.getMaxConnections());
+
+        poolGauge(meterRegistry, "httpcomponents.httpclient.pool.total.max", "Maximum size of the pool",
+            connectionManager, PoolStats::getMax, Tags.empty());
+        poolGauge(meterRegistry, "httpcomponents.httpclient.pool.total.connections", "Connections of the pool",
+            connectionManager, PoolStats::getLeased, Tags.of("state", "leased"));
+        poolGauge(meterRegistry, "httpcomponents.httpclient.pool.total.connections", "Connections of the pool",
+            connectionManager, PoolStats::getAvailable, Tags.of("state", "available"));
+        poolGauge(meterRegistry, "httpcomponents.httpclient.pool.total.pending", "Requests waiting for a connection",
+            connectionManager, PoolStats::getPending, Tags.empty());
+
+        this.httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(gravatar.getConnectTimeoutMs())
+                .setSocketTimeout(gravatar.getReadTimeoutMs())
+                .setConnectionRequestTimeout(gravatar.getConnectionRequestTimeoutMs())
+                .build())
+            .evictIdleConnections(gravatar.getIdleTimeoutMs(), TimeUnit.MILLISECONDS)
+            .evictExpiredConnections()
+            .disableCookieManagement()
+            // latency histogram tagged by method and status, in httpcomponents.httpclient.request
+            .setRequestExecutor(MicrometerHttpRequestExecutor.builder(meterRegistry)
+                .tags(CLIENT_TAGS)
+                .uriMapper(request -> "/avatar/{hash}")
+                .build())
+            .build();
+
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        // upstream error statuses, such as the 404 of d=404, are returned to the caller rather than thrown
+        this.restTemplate.setErrorHandler(new ResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+
+            @Override
+            public void handleError(ClientHttpResponse response) {
+            }
+        });
+    }
+
+    private static void poolGauge(MeterRegistry meterRegistry, String name, String description,
+            PoolingHttpClientConnectionManager connectionManager, ToDoubleFunction<PoolStats> value, Tags tags) {
+        Gauge.builder(name, connectionManager, manager -> value.applyAsDouble(manager.getTotalStats()))
+            .description(description)
+            .tags(CLIENT_TAGS.and(tags))
+            .register(meterRegistry);
+    }
+
+    /**
+     * Fetch an image from Gravatar. The body is fully read, so that the connection goes back to the pool.
+     *
+     * @param url the image URL.
+     * @param requestHeaders headers sent along, such as the conditional request ones.
+     * @return the upstream response, whatever its status below 500.
+     * @throws HystrixRuntimeException if Gravatar failed or answered a server error, or if the call
+     *         was not even attempted because the circuit is open or too many calls are in flight.
+     */
+    public ResponseEntity<byte[]> getImage(String url, HttpHeaders requestHeaders) {
+        return new HystrixCommand<ResponseEntity<byte[]>>(COMMAND) {
+            @Override
+            protected ResponseEntity<byte[]> run() {
+                ResponseEntity<byte[]> response = restTemplate.exchange(url, HttpMethod.GET,
+                    new HttpEntity<>(requestHeaders), byte[].class);
+                if (response.getStatusCode().is5xxServerError()) {
+                    // counted as a failure by the circuit breaker
+                    throw new HttpServerErrorException(response.getStatusCode());
+                }
+                return response;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        httpClient.close();
+    }
+}
@@ -10,4 +10,800 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  */
 @ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
 public class ApplicationProperties {
+
+    private final ConfigCache configCache = new ConfigCache();
+
+    private final HttpCache httpCache = new HttpCache();
+
+    private final ImageCache imageCache = new ImageCache();
+
+    private final Storage storage = new Storage();
+
+    private final Batch batch = new Batch();
+
+    private final Upload upload = new Upload();
+
+    private final Gravatar gravatar = new Gravatar();
+
+    private final UserCache userCache = new UserCache();
+
+    private final AuthService authService = new AuthService();
+
+    private final DefaultAvatar defaultAvatar = new DefaultAvatar();
+
+    private final Profiling profiling = new Profiling();
+
+    private final AuthorityCache authorityCache = new AuthorityCache();
+
+    private final TokenRefresh tokenRefresh = new TokenRefresh();
+
+    public ConfigCache getConfigCache() {
+        return configCache;
+    }
+
+    public HttpCache getHttpCache() {
+        return httpCache;
+    }
+
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Upload getUpload() {
+        return upload;
+    }
+
+    public Gravatar getGravatar() {
+        return gravatar;
+    }
+
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    public AuthService getAuthService() {
+        return authService;
+    }
+
+    public DefaultAvatar getDefaultAvatar() {
+        return defaultAvatar;
+    }
+
+    public Profiling getProfiling() {
+        return profiling;
+    }
+
+    public AuthorityCache getAuthorityCache() {
+        return authorityCache;
+    }
+
+    public TokenRefresh getTokenRefresh() {
+        return tokenRefresh;
+    }
+
+    /**
+     * Local snapshot of the {@link AvatarPluginConfig} held by {@link AvatarPluginConfigManager}.
+     */
+    public static class ConfigCache {
+
+        private long refreshIntervalMs = 30_000;
+
+        private long maxStalenessMs = 300_000;
+
+        /**
+         * Delay between two background refreshes of the snapshot. Bound to
+         * {@code application.config-cache.refresh-interval-ms} by the scheduler.
+         */
+        public long getRefreshIntervalMs() {
+            return refreshIntervalMs;
+        }
+
+        public void setRefreshIntervalMs(long refreshIntervalMs) {
+            this.refreshIntervalMs = refreshIntervalMs;
+        }
+
+        /**
+         * Age after which a snapshot is considered stale and an out of band refresh is triggered.
+         */
+        public long getMaxStalenessMs() {
+            return maxStalenessMs;
+        }
+
+        public void setMaxStalenessMs(long maxStalenessMs) {
+            this.maxStalenessMs = maxStalenessMs;
+        }
+    }
+
+    /**
+     * {@code Cache-Control} sent along with the avatar images.
+     */
+    public static class HttpCache {
+
+        private long maxAgeSeconds = 300;
+
+        private boolean cachePrivate = true;
+
+        public long getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+
+        public void setMaxAgeSeconds(long maxAgeSeconds) {
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+
+        /**
+         * Whether shared caches (proxies, ingress) must not store the images.
+         */
+        public boolean isCachePrivate() {
+            return cachePrivate;
+        }
+
+        public void setCachePrivate(boolean cachePrivate) {
+            this.cachePrivate = cachePrivate;
+        }
+    }
+
+    /**
+     * In-memory cache of the avatar images ready to be served.
+     */
+    public static class ImageCache {
+
+        private long maxBytes = 32 * 1024 * 1024;
+
+        private long maxEntryBytes = 512 * 1024;
+
+        private long timeToLiveSeconds = 600;
+
+        /**
+         * Memory budget of the cache, measured on the image bytes.
+         */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Images bigger than this are served without being cached, so that they can't evict many small ones.
+         */
+        public long getMaxEntryBytes() {
+            return maxEntryBytes;
+        }
+
+        public void setMaxEntryBytes(long maxEntryBytes) {
+            this.maxEntryBytes = maxEntryBytes;
+        }
+
+        /**
+         * Upper bound on the staleness of an entry when another instance changes the image.
+         */
+        public long getTimeToLiveSeconds() {
+            return timeToLiveSeconds;
+        }
+
+        public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+            this.timeToLiveSeconds = timeToLiveSeconds;
+        }
+    }
+
+    /**
+     * Where the avatar images are stored, see {@link org.entando.plugin.avatar.service.AvatarStorage}.
+     */
+    public static class Storage {
+
+        private String type = "database";
+
+        private final FileSystem fileSystem = new FileSystem();
+
+        /**
+         * Backend used for new images unless the plugin configuration selects another one.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public FileSystem getFileSystem() {
+            return fileSystem;
+        }
+
+        public static class FileSystem {
+
+            private String rootDirectory = "data/avatars";
+
+            public String getRootDirectory() {
+                return rootDirectory;
+            }
+
+            public void setRootDirectory(String rootDirectory) {
+                this.rootDirectory = rootDirectory;
+            }
+        }
+    }
+
+    /**
+     * Batch avatar endpoint used by list and table views.
+     */
+    public static class Batch {
+
+        private int maxSize = 100;
+
+        private long inlineMaxBytes = 16 * 1024;
+
+        /**
+         * Maximum number of usernames of a single request.
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Images bigger than this are returned as URLs even when inlining is requested.
+         */
+        public long getInlineMaxBytes() {
+            return inlineMaxBytes;
+        }
+
+        public void setInlineMaxBytes(long inlineMaxBytes) {
+            this.inlineMaxBytes = inlineMaxBytes;
+        }
+    }
+
+    /**
+     * Limits applied to uploaded images before they are decoded.
+     */
+    public static class Upload {
+
+        private long maxPixels = 16L * 1024 * 1024;
+
+        private boolean passThrough = true;
+
+        private boolean stripMetadata = true;
+
+        /**
+         * Maximum width x height of an upload, read from the image header, protecting the heap
+         * from small files decoding to huge bitmaps.
+         */
+        public long getMaxPixels() {
+            return maxPixels;
+        }
+
+        public void setMaxPixels(long maxPixels) {
+            this.maxPixels = maxPixels;
+        }
+
+        /**
+         * Whether uploads already having the expected format and dimensions are stored as they
+         * are, rather than decoded and re-encoded.
+         */
+        public boolean isPassThrough() {
+            return passThrough;
+        }
+
+        public void setPassThrough(boolean passThrough) {
+            this.passThrough = passThrough;
+        }
+
+        /**
+         * Whether EXIF, XMP, comments and text chunks are removed from images stored as they are.
+         */
+        public boolean isStripMetadata() {
+            return stripMetadata;
+        }
+
+        public void setStripMetadata(boolean stripMetadata) {
+            this.stripMetadata = stripMetadata;
+        }
+    }
+
+    /**
+     * How avatars of the GRAVATAR style are served, and the HTTP client used when they are proxied.
+     */
+    public static class Gravatar {
+
+        private Mode mode = Mode.REDIRECT;
+
+        private int maxConnections = 50;
+
+        private int connectTimeoutMs = 2_000;
+
+        private int readTimeoutMs = 5_000;
+
+        private int connectionRequestTimeoutMs = 1_000;
+
+        private long idleTimeoutMs = 30_000;
+
+        private final Cache cache = new Cache();
+
+        private final HashCache hashCache = new HashCache();
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * Size of the connection pool, all connections going to the same host.
+         */
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        /**
+         * Maximum wait for a connection of the pool when all are leased.
+         */
+        public int getConnectionRequestTimeoutMs() {
+            return connectionRequestTimeoutMs;
+        }
+
+        public void setConnectionRequestTimeoutMs(int connectionRequestTimeoutMs) {
+            this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+        }
+
+        /**
+         * Pooled connections idle for longer than this are closed in the background.
+         */
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public void setIdleTimeoutMs(long idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+
+        public Cache getCache() {
+            return cache;
+        }
+
+        public HashCache getHashCache() {
+            return hashCache;
+        }
+
+        public enum Mode {
+
+            /**
+             * Clients are redirected to Gravatar and download the image from there.
+             */
+            REDIRECT,
+
+            /**
+             * The image is downloaded from Gravatar and sent by the plugin.
+             */
+            PROXY
+        }
+
+        /**
+         * Cache of the username to Gravatar hash mapping, see {@link org.entando.plugin.avatar.service.GravatarHashCache}.
+         */
+        public static class HashCache {
+
+            private long maxSize = 10_000;
+
+            private long timeToLiveSeconds = 3_600;
+
+            public long getMaxSize() {
+                return maxSize;
+            }
+
+            public void setMaxSize(long maxSize) {
+                this.maxSize = maxSize;
+            }
+
+            /**
+             * Upper bound on how long an email change takes to be reflected.
+             */
+            public long getTimeToLiveSeconds() {
+                return timeToLiveSeconds;
+            }
+
+            public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+                this.timeToLiveSeconds = timeToLiveSeconds;
+            }
+        }
+
+        /**
+         * Cache of the proxied images, see {@link org.entando.plugin.avatar.service.GravatarImageCache}.
+         */
+        public static class Cache {
+
+            private long maxBytes = 16 * 1024 * 1024;
+
+            private long defaultTimeToLiveSeconds = 300;
+
+            private long maxTimeToLiveSeconds = 86_400;
+
+            private long notFoundTimeToLiveSeconds = 600;
+
+            private long staleWhileRevalidateSeconds = 86_400;
+
+            private String persistenceDirectory;
+
+            private long maxDiskBytes = 256 * 1024 * 1024;
+
+            private long sweepIntervalMs = 600_000;
+
+            /**
+             * Memory budget of the cache, measured on the image bytes.
+             */
+            public long getMaxBytes() {
+                return maxBytes;
+            }
+
+            public void setMaxBytes(long maxBytes) {
+                this.maxBytes = maxBytes;
+            }
+
+            /**
+             * Freshness of the images Gravatar sends without {@code Cache-Control} nor {@code Expires}.
+             */
+            public long getDefaultTimeToLiveSeconds() {
+                return defaultTimeToLiveSeconds;
+            }
+
+            public void setDefaultTimeToLiveSeconds(long defaultTimeToLiveSeconds) {
+                this.defaultTimeToLiveSeconds = defaultTimeToLiveSeconds;
+            }
+
+            /**
+             * Upper bound on the freshness granted by the upstream headers.
+             */
+            public long getMaxTimeToLiveSeconds() {
+                return maxTimeToLiveSeconds;
+            }
+
+            public void setMaxTimeToLiveSeconds(long maxTimeToLiveSeconds) {
+                this.maxTimeToLiveSeconds = maxTimeToLiveSeconds;
+            }
+
+            /**
+             * How long a user without Gravatar is remembered as such.
+             */
+            public long getNotFoundTimeToLiveSeconds() {
+                return notFoundTimeToLiveSeconds;
+            }
+
+            public void setNotFoundTimeToLiveSeconds(long notFoundTimeToLiveSeconds) {
+                this.notFoundTimeToLiveSeconds = notFoundTimeToLiveSeconds;
+            }
+
+            /**
+             * How long past its freshness an entry is still served while being refreshed in the background.
+             */
+            public long getStaleWhileRevalidateSeconds() {
+                return staleWhileRevalidateSeconds;
+            }
+
+            public void setStaleWhileRevalidateSeconds(long staleWhileRevalidateSeconds) {
+                this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+            }
+
+            /**
+             * Directory the entries are also written to and reloaded from after a restart, none by default.
+             */
+            public String getPersistenceDirectory() {
+                return persistenceDirectory;
+            }
+
+            public void setPersistenceDirectory(String persistenceDirectory) {
+                this.persistenceDirectory = persistenceDirectory;
+            }
+
+            /**
+             * Disk budget of the persistence directory, the entries expiring first being deleted past it.
+             */
+            public long getMaxDiskBytes() {
+                return maxDiskBytes;
+            }
+
+            public void setMaxDiskBytes(long maxDiskBytes) {
+                this.maxDiskBytes = maxDiskBytes;
+            }
+
+            /**
+             * Delay between two sweeps of the persistence directory. Bound to
+             * {@code application.gravatar.cache.sweep-interval-ms} by the scheduler.
+             */
+            public long getSweepIntervalMs() {
+                return sweepIntervalMs;
+            }
+
+            public void setSweepIntervalMs(long sweepIntervalMs) {
+                this.sweepIntervalMs = sweepIntervalMs;
+            }
+        }
+    }
+
+    /**
+     * Cache of the users looked up in the auth service, see {@link org.entando.plugin.avatar.client.EntandoAuthClient}.
+     */
+    public static class UserCache {
+
+        private long maxSize = 10_000;
+
+        private long timeToLiveSeconds = 300;
+
+        private long notFoundTimeToLiveSeconds = 60;
+
+        private int bulkParallelism = 8;
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getTimeToLiveSeconds() {
+            return timeToLiveSeconds;
+        }
+
+        public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+            this.timeToLiveSeconds = timeToLiveSeconds;
+        }
+
+        /**
+         * How long a user unknown to the auth service is remembered as such.
+         */
+        public long getNotFoundTimeToLiveSeconds() {
+            return notFoundTimeToLiveSeconds;
+        }
+
+        public void setNotFoundTimeToLiveSeconds(long notFoundTimeToLiveSeconds) {
+            this.notFoundTimeToLiveSeconds = notFoundTimeToLiveSeconds;
+        }
+
+        /**
+         * Maximum number of concurrent lookups of a bulk resolve.
+         */
+        public int getBulkParallelism() {
+            return bulkParallelism;
+        }
+
+        public void setBulkParallelism(int bulkParallelism) {
+            this.bulkParallelism = bulkParallelism;
+        }
+    }
+
+    /**
+     * HTTP client of the user management API, see {@link org.entando.plugin.avatar.client.EntandoAuthClient}.
+     */
+    public static class AuthService {
+
+        private int connectTimeoutMs = 2_000;
+
+        private int readTimeoutMs = 5_000;
+
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+    }
+
+    /**
+     * Avatars generated for the users without image in the DEFAULT style.
+     */
+    public static class DefaultAvatar {
+
+        private long cacheMaxBytes = 8 * 1024 * 1024;
+
+        private int maxSize = 512;
+
+        private long maxAgeSeconds = 31_536_000;
+
+        private boolean svg = true;
+
+        /**
+         * Memory budget of the generated images cache, measured on the image bytes.
+         */
+        public long getCacheMaxBytes() {
+            return cacheMaxBytes;
+        }
+
+        public void setCacheMaxBytes(long cacheMaxBytes) {
+            this.cacheMaxBytes = cacheMaxBytes;
+        }
+
+        /**
+         * Largest width or height generated, bigger sizes being scaled down to it.
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * {@code Cache-Control} max-age of the images served by seed, which never change.
+         */
+        public long getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+
+        public void setMaxAgeSeconds(long maxAgeSeconds) {
+            this.maxAgeSeconds = maxAgeSeconds;
+        }
+
+        /**
+         * Whether SVG is served to the clients explicitly accepting it, rather than PNG.
+         */
+        public boolean isSvg() {
+            return svg;
+        }
+
+        public void setSvg(boolean svg) {
+            this.svg = svg;
+        }
+    }
+
+    /**
+     * Sampled latency profiling of the {@link org.entando.plugin.avatar.aop.logging.LoggingAspect}.
+     */
+    public static class Profiling {
+
+        private boolean enabled = false;
+
+        private double sampleRate = 0.01;
+
+        /**
+         * Whether the aspect is registered outside the "dev" profile, so that profiling can be switched
+         * on at runtime by setting the {@code org.entando.plugin.avatar.aop.logging.profiling} logger to DEBUG.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Fraction of the calls timed while profiling, between 0 and 1.
+         */
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    /**
+     * Authorities of the access tokens, see {@link org.entando.plugin.avatar.security.oauth2.JwtAuthorityExtractor}.
+     */
+    public static class AuthorityCache {
+
+        private long maxSize = 10_000;
+
+        /**
+         * Tokens cached at most, each until it expires, 0 disabling the cache.
+         */
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * Refresh of the access tokens of the users logged in through the plugin, see
+     * {@link org.entando.plugin.avatar.security.oauth2.AuthorizationHeaderUtil}.
+     */
+    public static class TokenRefresh {
+
+        private long refreshAheadSeconds = 60;
+
+        private int maxConnections = 10;
+
+        private int connectTimeoutMs = 2_000;
+
+        private int readTimeoutMs = 5_000;
+
+        private long idleTimeoutMs = 30_000;
+
+        /**
+         * How long before the last minute of a token it is refreshed in the background, 0 disabling it.
+         */
+        public long getRefreshAheadSeconds() {
+            return refreshAheadSeconds;
+        }
+
+        public void setRefreshAheadSeconds(long refreshAheadSeconds) {
+            this.refreshAheadSeconds = refreshAheadSeconds;
+        }
+
+        /**
+         * Size of the connection pool to the token endpoint of each client registration.
+         */
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public int getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(int readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+
+        /**
+         * Pooled connections idle for longer are closed.
+         */
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public void setIdleTimeoutMs(long idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+    }
 }
@@ -2,6 +2,7 @@
 package org.entando.plugin.avatar.config;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.entando.plugin.avatar.domain.AvatarStyle;
@@ -14,6 +15,8 @@ public class AvatarPluginConfig {
     private int imageHeight;
     private List<String> imageTypes;
     private String gravatarUrl;
+    private String storage;
+    private List<Integer> renditionSizes;
 
     public AvatarStyle getStyle() {
         return style;
@@ -69,6 +72,30 @@ public class AvatarPluginConfig {
         this.gravatarUrl = gravatarUrl;
     }
 
+    /**
+     * Storage backend of new images, {@code application.storage.type} is used when not set.
+     */
+    public String getStorage() {
+        return storage;
+    }
+
+    public void setStorage(String storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Widths of the renditions generated at upload time, with the height following the
+     * {@code imageWidth} x {@code imageHeight} ratio. When empty, uploads must match those
+     * dimensions exactly.
+     */
+    public List<Integer> getRenditionSizes() {
+        return renditionSizes;
+    }
+
+    public void setRenditionSizes(List<Integer> renditionSizes) {
+        this.renditionSizes = renditionSizes;
+    }
+
     public static AvatarPluginConfig getDefault() {
         AvatarPluginConfig defaultAvatarPluginConfig = new AvatarPluginConfig();
         defaultAvatarPluginConfig.style = AvatarStyle.DEFAULT;
@@ -77,6 +104,7 @@ public class AvatarPluginConfig {
         defaultAvatarPluginConfig.imageHeight = 56;
         defaultAvatarPluginConfig.imageTypes = Arrays.asList("png", "jpg");
         defaultAvatarPluginConfig.gravatarUrl = "http://www.gravatar.com/avatar/";
+        defaultAvatarPluginConfig.renditionSizes = Collections.emptyList();
         return defaultAvatarPluginConfig;
     }
 }
@@ -1,30 +1,169 @@
 
 package org.entando.plugin.avatar.config;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.entando.config.ConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Serves the {@link AvatarPluginConfig} from an in-memory snapshot.
+ * <p>
+ * The snapshot is refreshed in the background from the config service, so that the image
+ * read path never waits on the network once the first configuration has been loaded.
+ */
 @Service
 public class AvatarPluginConfigManager {
 
+    private final Logger log = LoggerFactory.getLogger(AvatarPluginConfigManager.class);
+
     private final ConfigService<AvatarPluginConfig> configService;
+    private final ApplicationProperties.ConfigCache cacheProperties;
+    private final Executor taskExecutor;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final Timer refreshSuccessTimer;
+    private final Timer refreshFailureTimer;
+    private final Counter staleReadCounter;
 
     @Autowired
-    public AvatarPluginConfigManager(final ConfigService<AvatarPluginConfig> configService) {
+    public AvatarPluginConfigManager(final ConfigService<AvatarPluginConfig> configService,
+        ApplicationProperties applicationProperties,
+        @Qualifier("taskExecutor") Executor taskExecutor,
+        MeterRegistry meterRegistry) {
         this.configService = configService;
+        this.cacheProperties = applicationProperties.getConfigCache();
+        this.taskExecutor = taskExecutor;
+
+        this.refreshSuccessTimer = refreshTimer(meterRegistry, "success");
+        this.refreshFailureTimer = refreshTimer(meterRegistry, "failure");
+        this.staleReadCounter = Counter.builder("avatar.config.stale.reads")
+            .description("Reads served from a snapshot older than the staleness bound")
+            .register(meterRegistry);
+        Gauge.builder("avatar.config.age", snapshot, ref -> ref.get() == null ? 0 : ref.get().ageMillis() / 1000.0)
+            .description("Age of the local plugin configuration snapshot")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    private static Timer refreshTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("avatar.config.refresh")
+            .description("Latency of plugin configuration refreshes from the config service")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
     }
 
     public AvatarPluginConfig getAvatarPluginConfig() {
-        return Optional.ofNullable(configService.getConfig())
-            .orElseGet(AvatarPluginConfig::getDefault);
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            return loadInitialSnapshot().config;
+        }
+        if (current.ageMillis() > cacheProperties.getMaxStalenessMs()) {
+            staleReadCounter.increment();
+            refreshAsync();
+        }
+        return current.config;
     }
 
     public void update(AvatarPluginConfig avatarPluginConfig) {
         configService.updateConfig(avatarPluginConfig);
+        snapshot.set(new Snapshot(avatarPluginConfig));
     }
 
-}
+    /**
+     * Reloads the snapshot from the config service. On failure the previous snapshot is kept, and so is
+     * a snapshot saved by {@link #update} while the fetch was in flight, which may have read the config
+     * service before the update.
+     */
+    @Scheduled(initialDelayString = "${application.config-cache.refresh-interval-ms:30000}",
+        fixedDelayString = "${application.config-cache.refresh-interval-ms:30000}")
+    public void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Snapshot before = snapshot.get();
+            AvatarPluginConfig fetched = fetch();
+            if (!snapshot.compareAndSet(before, new Snapshot(fetched))) {
+                log.debug("Avatar plugin configuration updated during the refresh, keeping the update");
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to refresh avatar plugin configuration, keeping the current snapshot: {}", e.getMessage());
+        } finally {
+            refreshing.set(false);
+        }
+    }
 
+    private void refreshAsync() {
+        if (!refreshing.get()) {
+            taskExecutor.execute(this::refresh);
+        }
+    }
+
+    private synchronized Snapshot loadInitialSnapshot() {
+        Snapshot current = snapshot.get();
+        if (current != null) {
+            return current;
+        }
+        AvatarPluginConfig config;
+        try {
+            config = fetch();
+        } catch (RuntimeException e) {
+            log.warn("Unable to load avatar plugin configuration, using the default one: {}", e.getMessage());
+            // already past the staleness bound, so the next read schedules a new attempt
+            snapshot.compareAndSet(null, new Snapshot(AvatarPluginConfig.getDefault(), 0L));
+            return snapshot.get();
+        }
+        // a concurrent update() wins over the initial load
+        snapshot.compareAndSet(null, new Snapshot(config));
+        return snapshot.get();
+    }
+
+    private AvatarPluginConfig fetch() {
+        long start = System.nanoTime();
+        try {
+            AvatarPluginConfig config = Optional.ofNullable(configService.getConfig())
+                .orElseGet(AvatarPluginConfig::getDefault);
+            refreshSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return config;
+        } catch (RuntimeException e) {
+            refreshFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final AvatarPluginConfig config;
+        private final long loadedAt;
+
+        private Snapshot(AvatarPluginConfig config) {
+            this(config, System.currentTimeMillis());
+        }
+
+        private Snapshot(AvatarPluginConfig config, long loadedAt) {
+            this.config = config;
+            this.loadedAt = loadedAt;
+        }
+
+        private long ageMillis() {
+            return System.currentTimeMillis() - loadedAt;
+        }
+    }
+
+}
@@ -3,7 +3,10 @@ package org.entando.plugin.avatar.config;
 import org.entando.plugin.avatar.aop.logging.LoggingAspect;
 
 import io.github.jhipster.config.JHipsterConstants;
+import io.micrometer.core.instrument.MeterRegistry;
 
+import org.springframework.boot.autoconfigure.condition.AnyNestedCondition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.*;
 import org.springframework.core.env.Environment;
 
@@ -12,8 +15,27 @@ import org.springframework.core.env.Environment;
 public class LoggingAspectConfiguration {
 
     @Bean
-    @Profile(JHipsterConstants.SPRING_PROFILE_DEVELOPMENT)
-    public LoggingAspect loggingAspect(Environment env) {
-        return new LoggingAspect(env);
+    @Conditional(LoggingAspectCondition.class)
+    public LoggingAspect loggingAspect(Environment env, MeterRegistry meterRegistry,
+            ApplicationProperties applicationProperties) {
+        return new LoggingAspect(env, meterRegistry, applicationProperties);
+    }
+
+    /**
+     * The "dev" profile, or profiling enabled in any profile.
+     */
+    static class LoggingAspectCondition extends AnyNestedCondition {
+
+        LoggingAspectCondition() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @Profile(JHipsterConstants.SPRING_PROFILE_DEVELOPMENT)
+        static class DevelopmentProfile {
+        }
+
+        @ConditionalOnProperty(prefix = "application.profiling", name = "enabled", havingValue = "true")
+        static class ProfilingEnabled {
+        }
     }
 }
@@ -0,0 +1,110 @@
+package org.entando.plugin.avatar.config.liquibase;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.DatabaseException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.entando.plugin.avatar.service.util.ContentHashUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Moves the image bytes from {@code avatar.image} to the {@code avatar_image} table, filling
+ * in the size and content hash of each avatar.
+ * <p>
+ * Rows are copied in batches of {@code batchSize}, each batch being committed on its own, and
+ * rows already copied are skipped, so that the migration can be resumed if it is interrupted.
+ */
+public class AvatarImageMigration implements CustomTaskChange {
+
+    private final Logger log = LoggerFactory.getLogger(AvatarImageMigration.class);
+
+    private static final String SELECT_BATCH = "SELECT a.id, a.image FROM avatar a"
+        + " WHERE a.image IS NOT NULL AND a.id > ?"
+        + " AND NOT EXISTS (SELECT 1 FROM avatar_image i WHERE i.avatar_id = a.id)"
+        + " ORDER BY a.id";
+    private static final String INSERT_IMAGE = "INSERT INTO avatar_image (avatar_id, data) VALUES (?, ?)";
+    private static final String UPDATE_AVATAR = "UPDATE avatar SET image_size = ?, content_hash = ?, last_modified = ? WHERE id = ?";
+
+    private int batchSize = 100;
+
+    private int migrated;
+
+    public void setBatchSize(String batchSize) {
+        this.batchSize = Integer.parseInt(batchSize);
+    }
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        JdbcConnection connection = (JdbcConnection) database.getConnection();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        long lastId = Long.MIN_VALUE;
+        try (PreparedStatement select = connection.prepareStatement(SELECT_BATCH);
+            PreparedStatement insert = connection.prepareStatement(INSERT_IMAGE);
+            PreparedStatement update = connection.prepareStatement(UPDATE_AVATAR)) {
+            select.setMaxRows(batchSize);
+            int rows;
+            do {
+                rows = 0;
+                select.setLong(1, lastId);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastId = resultSet.getLong(1);
+                        byte[] data = resultSet.getBytes(2);
+                        insert.setLong(1, lastId);
+                        insert.setBytes(2, data);
+                        insert.addBatch();
+                        update.setLong(1, data.length);
+                        update.setString(2, ContentHashUtil.sha256Hex(data));
+                        update.setTimestamp(3, now);
+                        update.setLong(4, lastId);
+                        update.addBatch();
+                        rows++;
+                    }
+                }
+                if (rows > 0) {
+                    insert.executeBatch();
+                    update.executeBatch();
+                    connection.commit();
+                    migrated += rows;
+                    log.debug("Migrated {} avatar images", migrated);
+                }
+            } while (rows == batchSize);
+        } catch (SQLException | DatabaseException e) {
+            throw new CustomChangeException("Unable to migrate avatar images after " + migrated + " rows", e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Migrated " + migrated + " avatar images to the avatar_image table";
+    }
+
+    @Override
+    public void setUp() throws SetupException {
+        // nothing to set up
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+        // no external resources are used
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        ValidationErrors errors = new ValidationErrors();
+        if (batchSize <= 0) {
+            errors.addError("batchSize must be greater than 0");
+        }
+        return errors;
+    }
+}
@@ -6,9 +6,13 @@ import javax.persistence.*;
 import javax.validation.constraints.*;
 
 import java.io.Serializable;
+import java.time.Instant;
 
 /**
  * A Avatar.
+ * <p>
+ * Only holds the image metadata, the image bytes are stored in {@link AvatarImage} so that
+ * listings and second level cache entries stay small.
  */
 @Entity
 @Table(name = "avatar")
@@ -26,13 +30,30 @@ public class Avatar implements Serializable {
     @Column(name = "username", nullable = false, unique = true)
     private String username;
 
-    @Lob
-    @Column(name = "image")
-    private byte[] image;
-
     @Column(name = "image_content_type")
     private String imageContentType;
 
+    @Column(name = "image_size")
+    private Long imageSize;
+
+    @Column(name = "image_width")
+    private Integer imageWidth;
+
+    @Column(name = "image_height")
+    private Integer imageHeight;
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "last_modified")
+    private Instant lastModified;
+
+    @Column(name = "storage", length = 32)
+    private String storage;
+
+    @Column(name = "rendition_sizes")
+    private String renditionSizes;
+
     // jhipster-needle-entity-add-field - JHipster will add fields here, do not remove
     public Long getId() {
         return id;
@@ -55,30 +76,123 @@ public class Avatar implements Serializable {
         this.username = username;
     }
 
-    public byte[] getImage() {
-        return image;
+    public String getImageContentType() {
+        return imageContentType;
     }
 
-    public Avatar image(byte[] image) {
-        this.image = image;
+    public Avatar imageContentType(String imageContentType) {
+        this.imageContentType = imageContentType;
         return this;
     }
 
-    public void setImage(byte[] image) {
-        this.image = image;
+    public void setImageContentType(String imageContentType) {
+        this.imageContentType = imageContentType;
     }
 
-    public String getImageContentType() {
-        return imageContentType;
+    /**
+     * Image size in bytes.
+     */
+    public Long getImageSize() {
+        return imageSize;
     }
 
-    public Avatar imageContentType(String imageContentType) {
-        this.imageContentType = imageContentType;
+    public Avatar imageSize(Long imageSize) {
+        this.imageSize = imageSize;
         return this;
     }
 
-    public void setImageContentType(String imageContentType) {
-        this.imageContentType = imageContentType;
+    public void setImageSize(Long imageSize) {
+        this.imageSize = imageSize;
+    }
+
+    public Integer getImageWidth() {
+        return imageWidth;
+    }
+
+    public Avatar imageWidth(Integer imageWidth) {
+        this.imageWidth = imageWidth;
+        return this;
+    }
+
+    public void setImageWidth(Integer imageWidth) {
+        this.imageWidth = imageWidth;
+    }
+
+    public Integer getImageHeight() {
+        return imageHeight;
+    }
+
+    public Avatar imageHeight(Integer imageHeight) {
+        this.imageHeight = imageHeight;
+        return this;
+    }
+
+    public void setImageHeight(Integer imageHeight) {
+        this.imageHeight = imageHeight;
+    }
+
+    /**
+     * Hex encoded SHA-256 of the stored image bytes.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public Avatar contentHash(String contentHash) {
+        this.contentHash = contentHash;
+        return this;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Last time the image bytes were replaced.
+     */
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    public Avatar lastModified(Instant lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    public void setLastModified(Instant lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Type of the {@code AvatarStorage} holding the image bytes.
+     */
+    public String getStorage() {
+        return storage;
+    }
+
+    public Avatar storage(String storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public void setStorage(String storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Comma separated widths of the {@link AvatarRendition}s generated for the image.
+     */
+    public String getRenditionSizes() {
+        return renditionSizes;
+    }
+
+    public Avatar renditionSizes(String renditionSizes) {
+        this.renditionSizes = renditionSizes;
+        return this;
+    }
+
+    public void setRenditionSizes(String renditionSizes) {
+        this.renditionSizes = renditionSizes;
     }
     // jhipster-needle-entity-add-getters-setters - JHipster will add getters and setters here, do not remove
 
@@ -103,8 +217,14 @@ public class Avatar implements Serializable {
         return "Avatar{" +
             "id=" + getId() +
             ", username='" + getUsername() + "'" +
-            ", image='" + getImage() + "'" +
             ", imageContentType='" + getImageContentType() + "'" +
+            ", imageSize=" + getImageSize() +
+            ", imageWidth=" + getImageWidth() +
+            ", imageHeight=" + getImageHeight() +
+            ", contentHash='" + getContentHash() + "'" +
+            ", lastModified='" + getLastModified() + "'" +
+            ", storage='" + getStorage() + "'" +
+            ", renditionSizes='" + getRenditionSizes() + "'" +
             "}";
     }
 }
@@ -0,0 +1,93 @@
+package org.entando.plugin.avatar.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.persistence.*;
+import javax.validation.constraints.*;
+
+import java.io.Serializable;
+
+/**
+ * The image bytes of an {@link Avatar}, sharing its primary key.
+ * <p>
+ * Kept out of the second level cache on purpose: it is only loaded on the image serving path.
+ */
+@Entity
+@Table(name = "avatar_image")
+public class AvatarImage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "avatar_id")
+    private Long id;
+
+    @JsonIgnore
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "avatar_id")
+    private Avatar avatar;
+
+    @NotNull
+    @Lob
+    @Column(name = "data", nullable = false)
+    private byte[] data;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Avatar getAvatar() {
+        return avatar;
+    }
+
+    public AvatarImage avatar(Avatar avatar) {
+        this.avatar = avatar;
+        return this;
+    }
+
+    public void setAvatar(Avatar avatar) {
+        this.avatar = avatar;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public AvatarImage data(byte[] data) {
+        this.data = data;
+        return this;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AvatarImage)) {
+            return false;
+        }
+        return id != null && id.equals(((AvatarImage) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31;
+    }
+
+    @Override
+    public String toString() {
+        return "AvatarImage{" +
+            "id=" + getId() +
+            ", size=" + (data == null ? 0 : data.length) +
+            "}";
+    }
+}
@@ -0,0 +1,114 @@
+package org.entando.plugin.avatar.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import javax.persistence.*;
+import javax.validation.constraints.*;
+
+import java.io.Serializable;
+
+/**
+ * A resized copy of the image of an {@link Avatar}, generated at upload time.
+ * <p>
+ * Like {@link AvatarImage}, kept out of the second level cache.
+ */
+@Entity
+@Table(name = "avatar_rendition")
+public class AvatarRendition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sequenceGenerator")
+    @SequenceGenerator(name = "sequenceGenerator")
+    private Long id;
+
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "avatar_id", nullable = false)
+    private Avatar avatar;
+
+    @NotNull
+    @Column(name = "rendition_size", nullable = false)
+    private Integer size;
+
+    @NotNull
+    @Lob
+    @Column(name = "data", nullable = false)
+    private byte[] data;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Avatar getAvatar() {
+        return avatar;
+    }
+
+    public AvatarRendition avatar(Avatar avatar) {
+        this.avatar = avatar;
+        return this;
+    }
+
+    public void setAvatar(Avatar avatar) {
+        this.avatar = avatar;
+    }
+
+    /**
+     * Width of the rendition in pixels.
+     */
+    public Integer getSize() {
+        return size;
+    }
+
+    public AvatarRendition size(Integer size) {
+        this.size = size;
+        return this;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public AvatarRendition data(byte[] data) {
+        this.data = data;
+        return this;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AvatarRendition)) {
+            return false;
+        }
+        return id != null && id.equals(((AvatarRendition) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31;
+    }
+
+    @Override
+    public String toString() {
+        return "AvatarRendition{" +
+            "id=" + getId() +
+            ", size=" + getSize() +
+            ", bytes=" + (data == null ? 0 : data.length) +
+            "}";
+    }
+}
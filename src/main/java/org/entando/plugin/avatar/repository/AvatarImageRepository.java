@@ -0,0 +1,24 @@
+package org.entando.plugin.avatar.repository;
+
+import org.entando.plugin.avatar.domain.AvatarImage;
+import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+
+/**
+ * Spring Data  repository for the AvatarImage entity.
+ * <p>
+ * Writes go through bulk queries so that replacing or removing an image never loads the previous bytes.
+ */
+@Repository
+public interface AvatarImageRepository extends JpaRepository<AvatarImage, Long> {
+
+    @Modifying
+    @Query("update AvatarImage i set i.data = :data where i.id = :avatarId")
+    int updateData(@Param("avatarId") Long avatarId, @Param("data") byte[] data);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from AvatarImage i where i.id = :avatarId")
+    void deleteByAvatarId(@Param("avatarId") Long avatarId);
+}
@@ -0,0 +1,26 @@
+package org.entando.plugin.avatar.repository;
+
+import org.entando.plugin.avatar.domain.AvatarRendition;
+import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Spring Data  repository for the AvatarRendition entity.
+ */
+@Repository
+public interface AvatarRenditionRepository extends JpaRepository<AvatarRendition, Long> {
+
+    Optional<AvatarRendition> findOneByAvatarIdAndSize(Long avatarId, Integer size);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from AvatarRendition r where r.avatar.id = :avatarId")
+    void deleteByAvatarId(@Param("avatarId") Long avatarId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from AvatarRendition r where r.avatar.id = :avatarId and r.size not in :sizes")
+    void deleteByAvatarIdAndSizeNotIn(@Param("avatarId") Long avatarId, @Param("sizes") Collection<Integer> sizes);
+}
@@ -1,5 +1,7 @@
 package org.entando.plugin.avatar.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.entando.plugin.avatar.domain.Avatar;
@@ -15,6 +17,10 @@ import org.springframework.stereotype.Repository;
 public interface AvatarRepository extends JpaRepository<Avatar, Long> {
 
     Optional<Avatar> findByUsername(String username);
+
+    List<Avatar> findAllByUsername(String username);
+
+    List<Avatar> findAllByUsernameIn(Collection<String> usernames);
     
     void deleteByUsername(String username);
 }
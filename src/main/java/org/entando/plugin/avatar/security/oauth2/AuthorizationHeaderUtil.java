@@ -1,25 +1,46 @@
 package org.entando.plugin.avatar.security.oauth2;
 
+import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.httpcomponents.MicrometerHttpRequestExecutor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.entando.plugin.avatar.config.ApplicationProperties;
 import org.entando.plugin.avatar.security.oauth2.OAuthIdpTokenResponseDTO;
+import org.entando.plugin.avatar.service.util.SingleFlight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.http.OAuth2ErrorResponseErrorHandler;
 import org.springframework.security.oauth2.core.*;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
@@ -34,16 +55,44 @@ import org.springframework.web.client.RestTemplate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/**
+ * Authorization header relayed to the services called on behalf of the current user.
+ * <p>
+ * The access token of a user logged in through the plugin is refreshed once in its last minute,
+ * concurrent requests of the user waiting for that single refresh, and ahead of it in the background
+ * for {@code application.token-refresh.refresh-ahead-seconds}. Refreshes go through one pooled HTTP
+ * client per client registration, and are timed in {@code avatar.auth.token.refresh}.
+ */
 @Component
-public class AuthorizationHeaderUtil {
+public class AuthorizationHeaderUtil implements DisposableBean {
+
+    /**
+     * Tokens are refreshed while holding the request this long before their expiration.
+     */
+    private static final Duration EXPIRY_MARGIN = Duration.ofMinutes(1L);
+
+    private static final Tags CLIENT_TAGS = Tags.of("httpclient", "token-refresh");
 
     private final OAuth2AuthorizedClientService clientService;
     private final RestTemplateBuilder restTemplateBuilder;
+    private final ApplicationProperties.TokenRefresh tokenRefresh;
+    private final Executor taskExecutor;
+    private final MeterRegistry meterRegistry;
     private final Logger log = LoggerFactory.getLogger(AuthorizationHeaderUtil.class);
 
-    public AuthorizationHeaderUtil(OAuth2AuthorizedClientService clientService, RestTemplateBuilder restTemplateBuilder) {
+    private final ConcurrentMap<String, TokenClient> tokenClients = new ConcurrentHashMap<>();
+    private final SingleFlight<String, String> refreshes;
+    private final Set<String> refreshingAhead = ConcurrentHashMap.newKeySet();
+
+    public AuthorizationHeaderUtil(OAuth2AuthorizedClientService clientService, RestTemplateBuilder restTemplateBuilder,
+            ApplicationProperties applicationProperties, @Qualifier("taskExecutor") Executor taskExecutor,
+            MeterRegistry meterRegistry) {
         this.clientService = clientService;
         this.restTemplateBuilder = restTemplateBuilder;
+        this.tokenRefresh = applicationProperties.getTokenRefresh();
+        this.taskExecutor = taskExecutor;
+        this.meterRegistry = meterRegistry;
+        this.refreshes = new SingleFlight<>("token-refresh", meterRegistry);
     }
 
     public Optional<String> getAuthorizationHeader() {
@@ -66,11 +115,13 @@ public class AuthorizationHeaderUtil {
                 String accessTokenValue = accessToken.getTokenValue();
                 if (isExpired(accessToken)) {
                     log.info("AccessToken expired, refreshing automatically");
-                    accessTokenValue = refreshToken(client, oauthToken);
+                    accessTokenValue = refreshToken(client, oauthToken, "expired");
                     if (null == accessTokenValue) {
                         SecurityContextHolder.getContext().setAuthentication(null);
                         throw new OAuth2AuthorizationException(new OAuth2Error("access_denied", "The token is expired", null));
                     }
+                } else if (isExpiringSoon(accessToken)) {
+                    refreshAhead(client, oauthToken);
                 }
                 String authorizationHeaderValue = String.format("%s %s", tokenType, accessTokenValue);
                 return Optional.of(authorizationHeaderValue);
@@ -85,23 +136,80 @@ public class AuthorizationHeaderUtil {
         return Optional.empty();
     }
 
-    private String refreshToken(OAuth2AuthorizedClient client, OAuth2AuthenticationToken oauthToken) {
-        OAuth2AccessTokenResponse atr = refreshTokenClient(client);
-        if (atr == null || atr.getAccessToken() == null) {
-            log.info("Failed to refresh token for user");
-            return null;
-        }
+    /**
+     * Refresh the access token of a user, once for all the concurrent callers.
+     *
+     * @param trigger {@code expired} when the caller waits for the token, {@code ahead} in the background.
+     * @return the new access token, or {@code null} if the refresh was refused.
+     */
+    private String refreshToken(OAuth2AuthorizedClient client, OAuth2AuthenticationToken oauthToken, String trigger) {
+        String registrationId = client.getClientRegistration().getRegistrationId();
+        String principalName = client.getPrincipalName();
+        return refreshes.execute(registrationId + ":" + principalName, () -> {
+            // the refresh of a concurrent caller may have completed since the client was loaded
+            OAuth2AuthorizedClient current = clientService.loadAuthorizedClient(registrationId, principalName);
+            if (current != null && current.getAccessToken() != null && !isExpired(current.getAccessToken())
+                    && !current.getAccessToken().getTokenValue().equals(client.getAccessToken().getTokenValue())) {
+                return current.getAccessToken().getTokenValue();
+            }
+            return refreshAndSave(current != null ? current : client, oauthToken, trigger);
+        });
+    }
 
-        OAuth2RefreshToken refreshToken = atr.getRefreshToken() != null ? atr.getRefreshToken(): client.getRefreshToken();
-        OAuth2AuthorizedClient updatedClient = new OAuth2AuthorizedClient(
-            client.getClientRegistration(),
-            client.getPrincipalName(),
-            atr.getAccessToken(),
-            refreshToken
-        );
+    private String refreshAndSave(OAuth2AuthorizedClient client, OAuth2AuthenticationToken oauthToken, String trigger) {
+        long start = System.nanoTime();
+        String outcome = "failure";
+        try {
+            OAuth2AccessTokenResponse atr = refreshTokenClient(client);
+            if (atr == null || atr.getAccessToken() == null) {
+                log.info("Failed to refresh token for user");
+                return null;
+            }
 
-        clientService.saveAuthorizedClient(updatedClient, oauthToken);
-        return atr.getAccessToken().getTokenValue();
+            OAuth2RefreshToken refreshToken = atr.getRefreshToken() != null ? atr.getRefreshToken(): client.getRefreshToken();
+            OAuth2AuthorizedClient updatedClient = new OAuth2AuthorizedClient(
+                client.getClientRegistration(),
+                client.getPrincipalName(),
+                atr.getAccessToken(),
+                refreshToken
+            );
+
+            clientService.saveAuthorizedClient(updatedClient, oauthToken);
+            outcome = "success";
+            return atr.getAccessToken().getTokenValue();
+        } finally {
+            Timer.builder("avatar.auth.token.refresh")
+                .description("Latency of refresh token requests to the token endpoint")
+                .tags("trigger", trigger, "outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Refresh an access token about to expire on the {@code taskExecutor}, the current one being used meanwhile.
+     * A failed refresh is retried by a later request, while holding it once the token is in its last minute.
+     */
+    private void refreshAhead(OAuth2AuthorizedClient client, OAuth2AuthenticationToken oauthToken) {
+        String key = client.getClientRegistration().getRegistrationId() + ":" + client.getPrincipalName();
+        if (!refreshingAhead.add(key)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    refreshToken(client, oauthToken, "ahead");
+                } catch (RuntimeException e) {
+                    log.warn("Unable to refresh the access token of {} ahead of its expiry: {}",
+                        client.getPrincipalName(), e.getMessage());
+                } finally {
+                    refreshingAhead.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor saturated, a later request tries again
+            refreshingAhead.remove(key);
+        }
     }
 
     private OAuth2AccessTokenResponse refreshTokenClient(OAuth2AuthorizedClient currentClient) {
@@ -115,7 +223,7 @@ public class AuthorizationHeaderUtil {
             .contentType(MediaType.APPLICATION_FORM_URLENCODED)
             .body(formParameters);
         try {
-            RestTemplate r = restTemplate(currentClient.getClientRegistration().getClientId(), currentClient.getClientRegistration().getClientSecret());
+            RestTemplate r = restTemplate(currentClient.getClientRegistration());
             ResponseEntity<OAuthIdpTokenResponseDTO> responseEntity = r.exchange(requestEntity, OAuthIdpTokenResponseDTO.class);
             return toOAuth2AccessTokenResponse(responseEntity.getBody());
         } catch (OAuth2AuthorizationException e) {
@@ -139,19 +247,73 @@ public class AuthorizationHeaderUtil {
             .build();
     }
 
-    private RestTemplate restTemplate(String clientId, String clientSecret) {
-        return restTemplateBuilder
-            .additionalMessageConverters(
-                new FormHttpMessageConverter(),
-                new OAuth2AccessTokenResponseHttpMessageConverter())
-            .errorHandler(new OAuth2ErrorResponseErrorHandler())
-            .basicAuthentication(clientId, clientSecret)
+    /**
+     * The client of the token endpoint of a registration, created on first use and kept for the next refreshes.
+     */
+    private RestTemplate restTemplate(ClientRegistration registration) {
+        return tokenClients.computeIfAbsent(registration.getRegistrationId(), id -> {
+            CloseableHttpClient httpClient = createHttpClient();
+            RestTemplate restTemplate = restTemplateBuilder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .additionalMessageConverters(
+                    new FormHttpMessageConverter(),
+                    new OAuth2AccessTokenResponseHttpMessageConverter())
+                .errorHandler(new OAuth2ErrorResponseErrorHandler())
+                .basicAuthentication(registration.getClientId(), registration.getClientSecret())
+                .build();
+            return new TokenClient(httpClient, restTemplate);
+        }).restTemplate;
+    }
+
+    private CloseableHttpClient createHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(tokenRefresh.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(tokenRefresh.getMaxConnections());
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(tokenRefresh.getConnectTimeoutMs())
+                .setSocketTimeout(tokenRefresh.getReadTimeoutMs())
+                .setConnectionRequestTimeout(tokenRefresh.getConnectTimeoutMs())
+                .build())
+            .evictIdleConnections(tokenRefresh.getIdleTimeoutMs(), TimeUnit.MILLISECONDS)
+            .evictExpiredConnections()
+            .disableCookieManagement()
+            // latency histogram tagged by method and status, in httpcomponents.httpclient.request
+            .setRequestExecutor(MicrometerHttpRequestExecutor.builder(meterRegistry)
+                .tags(CLIENT_TAGS)
+                .uriMapper(request -> "/token")
+                .build())
             .build();
     }
 
     private boolean isExpired(OAuth2AccessToken accessToken) {
         Instant now = Instant.now();
         Instant expiresAt = accessToken.getExpiresAt();
-        return now.isAfter(expiresAt.minus(Duration.ofMinutes(1L)));
+        return now.isAfter(expiresAt.minus(EXPIRY_MARGIN));
+    }
+
+    private boolean isExpiringSoon(OAuth2AccessToken accessToken) {
+        Instant now = Instant.now();
+        Instant expiresAt = accessToken.getExpiresAt();
+        return now.isAfter(expiresAt.minus(EXPIRY_MARGIN).minusSeconds(tokenRefresh.getRefreshAheadSeconds()));
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (TokenClient tokenClient : tokenClients.values()) {
+            tokenClient.httpClient.close();
+        }
+    }
+
+    private static final class TokenClient {
+
+        private final CloseableHttpClient httpClient;
+        private final RestTemplate restTemplate;
+
+        private TokenClient(CloseableHttpClient httpClient, RestTemplate restTemplate) {
+            this.httpClient = httpClient;
+            this.restTemplate = restTemplate;
+        }
     }
 }
@@ -1,32 +1,107 @@
 package org.entando.plugin.avatar.security.oauth2;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.entando.plugin.avatar.config.ApplicationProperties;
 import org.entando.plugin.avatar.config.EntandoProperties;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
 import org.springframework.stereotype.Component;
 
-import java.util.Collection;
-
+/**
+ * Authorities of the plugin client roles of an access token.
+ * <p>
+ * A page showing many avatars sends the same token with each of its requests, so the authorities are
+ * cached by token until it expires. Tokens are keyed by their {@code iss} and {@code jti} claims, a
+ * {@code jti} being only unique within its issuer, or by their value when they lack either.
+ */
 @Component
 public class JwtAuthorityExtractor extends JwtAuthenticationConverter {
 
+    private static final String CACHE_NAME = "jwt.authorities";
+
+    /**
+     * Same tag keys as the caches registered by Spring Boot, which Prometheus requires for a given meter name.
+     */
+    private static final Tags CACHE_TAGS = Tags.of("cacheManager", "jwtAuthorityExtractor", "name", CACHE_NAME);
+
     private EntandoProperties entandoProperties;
 
-    public JwtAuthorityExtractor(EntandoProperties entandoProperties) {
+    private final Cache<String, Authorities> cache;
+
+    public JwtAuthorityExtractor(EntandoProperties entandoProperties, ApplicationProperties applicationProperties,
+            MeterRegistry meterRegistry) {
         this.entandoProperties = entandoProperties;
+        long maxSize = applicationProperties.getAuthorityCache().getMaxSize();
+        if (maxSize > 0) {
+            this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                // maintenance is cheap, run by the caller rather than handed off to the common pool
+                .executor(Runnable::run)
+                .expireAfter(new Expiry<String, Authorities>() {
+                    @Override
+                    public long expireAfterCreate(String key, Authorities authorities, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(
+                            Math.max(0, authorities.expiresAt.toEpochMilli() - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Authorities authorities, long currentTime,
+                            long currentDuration) {
+                        return expireAfterCreate(key, authorities, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Authorities authorities, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, CACHE_TAGS);
+        } else {
+            this.cache = null;
+        }
     }
 
     @Override
     protected Collection<GrantedAuthority> extractAuthorities(Jwt jwt) {
-        return this.extractAuthorityFromClaims(jwt.getClaims());
+        Instant expiresAt = jwt.getExpiresAt();
+        // tokens without expiry are not cached, nor the expired ones the decoder accepted within its clock skew
+        if (cache == null || expiresAt == null || expiresAt.toEpochMilli() <= System.currentTimeMillis()) {
+            return this.extractAuthorityFromClaims(jwt.getClaims());
+        }
+        return cache.get(getKey(jwt), key ->
+            new Authorities(Collections.unmodifiableList(this.extractAuthorityFromClaims(jwt.getClaims())), expiresAt))
+            .authorities;
+    }
+
+    private static String getKey(Jwt jwt) {
+        // read as is, getId() and getIssuer() converting the claims on each call
+        Object id = jwt.getClaims().get(JwtClaimNames.JTI);
+        Object issuer = jwt.getClaims().get(JwtClaimNames.ISS);
+        if (id == null || issuer == null) {
+            return jwt.getTokenValue();
+        }
+        return issuer + ":" + id;
     }
 
     public List<GrantedAuthority> extractAuthorityFromClaims(Map<String, Object> claims) {
@@ -47,4 +122,15 @@ public class JwtAuthorityExtractor extends JwtAuthenticationConverter {
     private List<GrantedAuthority> mapRolesToGrantedAuthorities(Collection<String> roles) {
         return roles.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList());
     }
+
+    private static final class Authorities {
+
+        private final List<GrantedAuthority> authorities;
+        private final Instant expiresAt;
+
+        private Authorities(List<GrantedAuthority> authorities, Instant expiresAt) {
+            this.authorities = authorities;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
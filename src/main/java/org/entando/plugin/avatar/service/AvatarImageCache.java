@@ -0,0 +1,167 @@
+package org.entando.plugin.avatar.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the local avatar images, keyed by username and rounded size, holding everything
+ * needed to answer an image request without touching the database.
+ * <p>
+ * The cache is weighed by image bytes rather than by entry count, and images larger than
+ * {@code application.image-cache.max-entry-bytes} are not admitted at all. Entries are
+ * invalidated locally when an avatar changes; the time to live bounds how long other
+ * instances may keep serving the previous image.
+ */
+@Component
+public class AvatarImageCache {
+
+    private static final String CACHE_NAME = "avatar.images";
+
+    /**
+     * Same tag keys as the caches registered by Spring Boot, which Prometheus requires for a given meter name.
+     */
+    private static final Tags CACHE_TAGS = Tags.of("cacheManager", "avatarImageCache", "name", CACHE_NAME);
+
+    private final Cache<Key, CachedImage> cache;
+    private final long maxEntryBytes;
+    private final Counter rejectedCounter;
+
+    public AvatarImageCache(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        ApplicationProperties.ImageCache imageCache = applicationProperties.getImageCache();
+        this.maxEntryBytes = imageCache.getMaxEntryBytes();
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(imageCache.getMaxBytes())
+            .weigher((Key key, CachedImage image) -> image.getData().length)
+            .expireAfterWrite(imageCache.getTimeToLiveSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, CACHE_TAGS);
+        Gauge.builder("cache.bytes", cache, c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+            .description("Image bytes held by the cache")
+            .tag("cache", CACHE_NAME)
+            .tags(CACHE_TAGS)
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("cache.rejections")
+            .description("Images not admitted in the cache because of their size")
+            .tag("cache", CACHE_NAME)
+            .tags(CACHE_TAGS)
+            .register(meterRegistry);
+    }
+
+    /**
+     * @param size the size requested by the client as rounded by {@code AvatarService.roundSize},
+     *             {@code null} for the default image.
+     */
+    public Optional<CachedImage> get(String username, Integer size) {
+        return Optional.ofNullable(cache.getIfPresent(new Key(username, size)));
+    }
+
+    public void put(String username, Integer size, CachedImage image) {
+        if (image.getData().length > maxEntryBytes) {
+            rejectedCounter.increment();
+            return;
+        }
+        cache.put(new Key(username, size), image);
+    }
+
+    /**
+     * Drop the cached images of a user. When called within a transaction the entries are dropped
+     * again after commit, so that a concurrent read can't cache the previous image in between.
+     */
+    public void evict(String username) {
+        invalidate(username);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidate(username);
+                }
+            });
+        }
+    }
+
+    private void invalidate(String username) {
+        // a scan, but only on writes which are rare compared to reads
+        cache.asMap().keySet().removeIf(key -> key.username.equals(username));
+    }
+
+    private static final class Key {
+
+        private final String username;
+        private final Integer size;
+
+        private Key(String username, Integer size) {
+            this.username = username;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return username.equals(key.username) && Objects.equals(size, key.size);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, size);
+        }
+    }
+
+    /**
+     * An image ready to be written to the response, with its validators.
+     */
+    public static final class CachedImage {
+
+        private final byte[] data;
+        private final String contentType;
+        private final String contentHash;
+        private final long lastModified;
+
+        public CachedImage(byte[] data, String contentType, String contentHash, long lastModified) {
+            this.data = data;
+            this.contentType = contentType;
+            this.contentHash = contentHash;
+            this.lastModified = lastModified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * Last modification time in milliseconds since the epoch, or -1 if unknown.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
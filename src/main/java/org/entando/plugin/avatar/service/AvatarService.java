@@ -4,6 +4,8 @@ import org.entando.plugin.avatar.domain.Avatar;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -41,12 +43,62 @@ public interface AvatarService {
      *
      * @param id the id of the entity.
      */
-    void delete(Long id);
+    void delete(Long id) throws IOException;
 
 
     public Optional<Avatar> findByUsername(String username);
 
-    public void deleteByUsername(String username);
+    /**
+     * Get the avatars of several users with a single query.
+     *
+     * @param usernames the users, at most one avatar is returned for each.
+     * @return the avatars found, in no particular order.
+     */
+    List<Avatar> findByUsernames(Collection<String> usernames);
+
+    /**
+     * Round a requested size to the nearest configured width, so that the sizes served by the same
+     * rendition share their cache entry.
+     *
+     * @param size the requested width in pixels, {@code null} for the image as uploaded.
+     * @return the configured rendition width, {@code null} for the image as uploaded.
+     */
+    Integer roundSize(Integer size);
+
+    /**
+     * Pick the rendition of an avatar best matching a requested size.
+     *
+     * @param avatar the avatar whose image is requested.
+     * @param size the requested width in pixels, {@code null} for the image as uploaded.
+     * @return the rendition to serve, {@code AvatarStorage.ORIGINAL} for the image as uploaded.
+     */
+    int resolveRendition(Avatar avatar, Integer size);
+
+    /**
+     * Load the image bytes of an avatar.
+     *
+     * @param avatar the avatar whose image is requested.
+     * @param rendition the rendition, as returned by {@link #resolveRendition}.
+     * @return the image bytes, if any.
+     */
+    Optional<byte[]> findImageData(Avatar avatar, int rendition) throws IOException;
+
+    /**
+     * Whether the image of an avatar should be sent with {@link #transferImage} rather than loaded on the heap.
+     */
+    boolean isImageStreamed(Avatar avatar);
+
+    /**
+     * Write the image bytes of an avatar to {@code target}.
+     *
+     * @param avatar the avatar whose image is requested.
+     * @param rendition the rendition, as returned by {@link #resolveRendition}.
+     * @param target the channel the image is written to.
+     * @return {@code false} if the avatar has no such image.
+     */
+    boolean transferImage(Avatar avatar, int rendition, WritableByteChannel target) throws IOException;
+
+    public void deleteByUsername(String username) throws IOException;
 
     public Avatar upload(String username, MultipartFile image) throws IOException;
 }
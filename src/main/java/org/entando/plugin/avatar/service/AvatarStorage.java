@@ -0,0 +1,62 @@
+package org.entando.plugin.avatar.service;
+
+import org.entando.plugin.avatar.domain.Avatar;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Storage backend of the avatar image bytes.
+ * <p>
+ * The avatar metadata always stays in the database; {@link Avatar#getStorage()} records which
+ * backend holds the bytes, so that switching backend doesn't hide the images already stored.
+ * <p>
+ * Besides the uploaded image, identified by {@link #ORIGINAL}, a backend holds the resized
+ * renditions of the avatar, identified by their width.
+ */
+public interface AvatarStorage {
+
+    /**
+     * Rendition identifying the image as uploaded.
+     */
+    int ORIGINAL = 0;
+
+    /**
+     * @return the name selecting this backend in {@code application.storage.type} or in the plugin configuration.
+     */
+    String getType();
+
+    /**
+     * Whether images should be streamed with {@link #transferTo} rather than loaded on the heap.
+     */
+    boolean isStreaming();
+
+    /**
+     * Store, or replace, an image of a persisted avatar.
+     */
+    void store(Avatar avatar, int rendition, byte[] data) throws IOException;
+
+    Optional<byte[]> load(Avatar avatar, int rendition) throws IOException;
+
+    /**
+     * Write an image of an avatar to {@code target}.
+     *
+     * @return {@code false} if there is no such image for the avatar.
+     */
+    boolean transferTo(Avatar avatar, int rendition, WritableByteChannel target) throws IOException;
+
+    /**
+     * Delete the images of an avatar that a new image, of content hash {@code contentHash} and with
+     * renditions at the {@code keep} widths, does not overwrite.
+     *
+     * @param avatar the avatar as persisted before the new image.
+     */
+    void deleteReplaced(Avatar avatar, String contentHash, Collection<Integer> keep) throws IOException;
+
+    /**
+     * Delete the image of an avatar along with all its renditions.
+     */
+    void delete(Avatar avatar) throws IOException;
+}
@@ -0,0 +1,95 @@
+package org.entando.plugin.avatar.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.entando.plugin.avatar.client.EntandoAuthClient;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the Gravatar hash of each username, that is the MD5 of the user email, so that once
+ * known, building the Gravatar URL of a user needs no call to the auth service.
+ */
+@Component
+public class GravatarHashCache {
+
+    private static final String CACHE_NAME = "gravatar.hashes";
+
+    /**
+     * Same tag keys as the caches registered by Spring Boot, which Prometheus requires for a given meter name.
+     */
+    private static final Tags CACHE_TAGS = Tags.of("cacheManager", "gravatarHashCache", "name", CACHE_NAME);
+
+    private final EntandoAuthClient authClient;
+    private final Cache<String, String> cache;
+
+    public GravatarHashCache(EntandoAuthClient authClient, ApplicationProperties applicationProperties,
+            MeterRegistry meterRegistry) {
+        this.authClient = authClient;
+        ApplicationProperties.Gravatar.HashCache hashCache = applicationProperties.getGravatar().getHashCache();
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(hashCache.getMaxSize())
+            .expireAfterWrite(hashCache.getTimeToLiveSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, CACHE_TAGS);
+    }
+
+    /**
+     * @return the Gravatar hash of the user, empty when the user is unknown or has no email.
+     */
+    public Optional<String> getHash(String username) {
+        // nothing is cached for users without hash, the auth client remembers unknown users
+        return Optional.ofNullable(cache.get(username,
+            key -> authClient.findUserDetail(key).map(GravatarHashCache::hash).orElse(null)));
+    }
+
+    /**
+     * Bulk version of {@link #getHash(String)}, the users not cached being resolved together.
+     *
+     * @return the hashes by username, users without hash being left out.
+     */
+    public Map<String, String> getHashes(Collection<String> usernames) {
+        return cache.getAll(usernames, missing -> {
+            Map<String, String> hashes = new HashMap<>();
+            List<String> keys = new ArrayList<>();
+            missing.forEach(keys::add);
+            authClient.findUserDetails(keys).forEach((username, user) -> {
+                String hash = hash(user);
+                if (hash != null) {
+                    hashes.put(username, hash);
+                }
+            });
+            return hashes;
+        });
+    }
+
+    private static String hash(EntandoAuthClient.User user) {
+        String email = user.getEmail();
+        return StringUtils.hasText(email) ? hashOf(email) : null;
+    }
+
+    /**
+     * @return the Gravatar hash of an email.
+     */
+    public static String hashOf(String email) {
+        // as specified by Gravatar: trimmed and lower cased
+        return DigestUtils.md5DigestAsHex(email.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,571 @@
+package org.entando.plugin.avatar.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.entando.plugin.avatar.client.GravatarClient;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.service.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of the images proxied from Gravatar, keyed by email hash and size.
+ * <p>
+ * Entries stay fresh for the time allowed by the upstream {@code Cache-Control} (or {@code Expires}),
+ * and 404 answers of {@code d=404} are cached as well, for {@code application.gravatar.cache.not-found-time-to-live-seconds}.
+ * Past their freshness, entries are still served for {@code stale-while-revalidate-seconds} while a single
+ * background refresh on the {@code taskExecutor} revalidates them with their ETag. Concurrent misses
+ * for the same image wait for a single upstream request. When a persistence directory is configured,
+ * entries are also written to disk and read back on memory misses, so that a restarted instance
+ * doesn't refetch every avatar at once. Expired files are deleted when read, and by a periodic sweep
+ * that also keeps the directory within {@code max-disk-bytes}.
+ * <p>
+ * Sizes are clamped to the range Gravatar serves, so that arbitrary {@code size} parameters don't each
+ * get an entry of their own.
+ */
+@Component
+public class GravatarImageCache {
+
+    private static final String CACHE_NAME = "gravatar.images";
+
+    /**
+     * Same tag keys as the caches registered by Spring Boot, which Prometheus requires for a given meter name.
+     */
+    private static final Tags CACHE_TAGS = Tags.of("cacheManager", "gravatarImageCache", "name", CACHE_NAME);
+
+    /**
+     * Rough footprint of an entry besides its image, so that cached 404s count against the budget.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Range of the sizes served by Gravatar, which answers larger ones with its largest image.
+     */
+    public static final int MIN_SIZE = 1;
+    public static final int MAX_SIZE = 2048;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Logger log = LoggerFactory.getLogger(GravatarImageCache.class);
+
+    private final GravatarClient gravatarClient;
+    private final Executor taskExecutor;
+    private final ApplicationProperties.Gravatar.Cache properties;
+    private final Path persistenceDirectory;
+
+    private final Cache<Key, GravatarImage> cache;
+    private final Set<Key> refreshing = ConcurrentHashMap.newKeySet();
+    private final SingleFlight<Key, GravatarImage> fetches;
+
+    private final Counter freshCounter;
+    private final Counter staleCounter;
+    private final Counter diskCounter;
+    private final Counter fetchCounter;
+
+    public GravatarImageCache(GravatarClient gravatarClient, ApplicationProperties applicationProperties,
+            @Qualifier("taskExecutor") Executor taskExecutor, MeterRegistry meterRegistry) {
+        this.gravatarClient = gravatarClient;
+        this.taskExecutor = taskExecutor;
+        this.properties = applicationProperties.getGravatar().getCache();
+        this.persistenceDirectory = StringUtils.hasText(properties.getPersistenceDirectory())
+            ? Paths.get(properties.getPersistenceDirectory()).toAbsolutePath() : null;
+
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(properties.getMaxBytes())
+            .weigher((Key key, GravatarImage image) -> ENTRY_OVERHEAD_BYTES + image.getData().length)
+            .expireAfter(new Expiry<Key, GravatarImage>() {
+                @Override
+                public long expireAfterCreate(Key key, GravatarImage image, long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, image.staleUntil - System.currentTimeMillis()));
+                }
+
+                @Override
+                public long expireAfterUpdate(Key key, GravatarImage image, long currentTime, long currentDuration) {
+                    return expireAfterCreate(key, image, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(Key key, GravatarImage image, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, CACHE_TAGS);
+        this.fetches = new SingleFlight<>("gravatar", meterRegistry);
+        this.freshCounter = readCounter(meterRegistry, "fresh");
+        this.staleCounter = readCounter(meterRegistry, "stale");
+        this.diskCounter = readCounter(meterRegistry, "disk");
+        this.fetchCounter = readCounter(meterRegistry, "fetch");
+    }
+
+    private static Counter readCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("avatar.gravatar.cache.reads")
+            .description("Gravatar image reads by where they were answered from")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    /**
+     * @return {@code size} within the range served by Gravatar.
+     */
+    public static int clampSize(int size) {
+        return Math.max(MIN_SIZE, Math.min(size, MAX_SIZE));
+    }
+
+    /**
+     * Get a Gravatar image, fetching it only when there is no usable cached copy.
+     *
+     * @param url the upstream URL of the image, of the {@link #clampSize clamped} size.
+     * @param hash the MD5 of the email, the image being the same whatever the Gravatar base URL.
+     * @param size the size requested to Gravatar.
+     * @return the image, or the upstream status when it couldn't be retrieved.
+     */
+    public GravatarImage get(String url, String hash, int size) {
+        Key key = new Key(hash, clampSize(size));
+        long now = System.currentTimeMillis();
+
+        GravatarImage image = cache.getIfPresent(key);
+        if (image == null && persistenceDirectory != null) {
+            image = load(key, now).orElse(null);
+            if (image != null) {
+                diskCounter.increment();
+                cache.put(key, image);
+            }
+        } else if (image != null) {
+            (image.isFresh(now) ? freshCounter : staleCounter).increment();
+        }
+
+        if (image == null) {
+            fetchCounter.increment();
+            // concurrent misses of a popular avatar share one upstream request
+            return fetches.execute(key, () -> fetch(key, url, null));
+        }
+        if (!image.isFresh(now)) {
+            refreshAsync(key, url, image);
+        }
+        return image;
+    }
+
+    private void refreshAsync(Key key, String url, GravatarImage stale) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    fetches.execute(key, () -> fetch(key, url, stale));
+                } catch (RuntimeException e) {
+                    log.warn("Unable to refresh Gravatar image {}, keeping the stale one: {}", key, e.getMessage());
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // executor saturated, a later read tries again
+            refreshing.remove(key);
+        }
+    }
+
+    private GravatarImage fetch(Key key, String url, GravatarImage previous) {
+        HttpHeaders requestHeaders = new HttpHeaders();
+        if (previous != null && previous.etag != null) {
+            requestHeaders.setIfNoneMatch(previous.etag);
+        }
+        ResponseEntity<byte[]> response;
+        try {
+            response = gravatarClient.getImage(url, requestHeaders);
+        } catch (HystrixRuntimeException e) {
+            if (previous == null) {
+                throw e;
+            }
+            // Gravatar unavailable, a stale copy is better than an error
+            log.debug("Unable to refresh Gravatar image {}: {}", key, e.getFailureType());
+            return previous;
+        }
+        HttpHeaders headers = response.getHeaders();
+        long now = System.currentTimeMillis();
+
+        GravatarImage image;
+        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && previous != null) {
+            image = new GravatarImage(HttpStatus.OK, previous.data, previous.contentType, previous.etag,
+                previous.lastModified, now + freshnessMillis(headers), 0);
+        } else if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+            MediaType contentType = headers.getContentType();
+            image = new GravatarImage(HttpStatus.OK, response.getBody(),
+                contentType == null ? null : contentType.toString(), headers.getETag(), headers.getLastModified(),
+                now + freshnessMillis(headers), 0);
+        } else if (response.getStatusCode() == HttpStatus.NOT_FOUND) {
+            image = new GravatarImage(HttpStatus.NOT_FOUND, new byte[0], null, null, -1,
+                now + TimeUnit.SECONDS.toMillis(properties.getNotFoundTimeToLiveSeconds()), 0);
+        } else {
+            log.debug("Gravatar answered {} for {}", response.getStatusCode(), key);
+            return previous != null ? previous
+                : new GravatarImage(response.getStatusCode(), new byte[0], null, null, -1, now, now);
+        }
+
+        if (isCacheable(headers)) {
+            image = image.withStaleUntil(image.freshUntil
+                + TimeUnit.SECONDS.toMillis(properties.getStaleWhileRevalidateSeconds()));
+            cache.put(key, image);
+            persist(key, image);
+        } else {
+            cache.invalidate(key);
+        }
+        return image;
+    }
+
+    private static boolean isCacheable(HttpHeaders headers) {
+        String cacheControl = headers.getCacheControl();
+        return cacheControl == null || !cacheControl.toLowerCase(Locale.ROOT).contains("no-store");
+    }
+
+    /**
+     * Freshness lifetime given by the upstream headers, bounded by {@code max-time-to-live-seconds}.
+     */
+    private long freshnessMillis(HttpHeaders headers) {
+        long freshness = TimeUnit.SECONDS.toMillis(properties.getDefaultTimeToLiveSeconds());
+        String cacheControl = headers.getCacheControl();
+        boolean fromCacheControl = false;
+        if (cacheControl != null) {
+            for (String directive : StringUtils.commaDelimitedListToStringArray(cacheControl.toLowerCase(Locale.ROOT))) {
+                directive = directive.trim();
+                if (directive.equals("no-cache")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        freshness = TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8).trim()));
+                        fromCacheControl = true;
+                    } catch (NumberFormatException e) {
+                        log.debug("Ignoring invalid Gravatar Cache-Control: {}", cacheControl);
+                    }
+                }
+            }
+        }
+        if (!fromCacheControl && headers.getExpires() > 0) {
+            long date = headers.getDate() > 0 ? headers.getDate() : System.currentTimeMillis();
+            freshness = headers.getExpires() - date;
+        }
+        return Math.max(0, Math.min(freshness, TimeUnit.SECONDS.toMillis(properties.getMaxTimeToLiveSeconds())));
+    }
+
+    /**
+     * @return the persisted entry, unless expired, in which case its file is deleted.
+     */
+    private Optional<GravatarImage> load(Key key, long now) {
+        Path file = resolve(key);
+        GravatarImage image;
+        try (InputStream is = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(is)) {
+            image = read(in, true);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Ignoring unreadable Gravatar cache file for {}: {}", key, e.getMessage());
+            image = null;
+        }
+        if (image != null && image.staleUntil > now) {
+            return Optional.of(image);
+        }
+        deleteQuietly(file);
+        return Optional.empty();
+    }
+
+    /**
+     * @param withData {@code false} to only read the header of the file.
+     * @return the entry, or {@code null} if written by another version.
+     */
+    private static GravatarImage read(DataInputStream in, boolean withData) throws IOException {
+        if (in.readInt() != FILE_VERSION) {
+            return null;
+        }
+        HttpStatus status = HttpStatus.valueOf(in.readInt());
+        String contentType = readNullable(in);
+        String etag = readNullable(in);
+        long lastModified = in.readLong();
+        long freshUntil = in.readLong();
+        long staleUntil = in.readLong();
+        byte[] data = new byte[0];
+        if (withData) {
+            data = new byte[in.readInt()];
+            in.readFully(data);
+        }
+        return new GravatarImage(status, data, contentType, etag, lastModified, freshUntil, staleUntil);
+    }
+
+    /**
+     * Delete the expired or unreadable files of the persistence directory, then the files expiring first
+     * until the directory fits in {@code max-disk-bytes}.
+     */
+    @Scheduled(initialDelayString = "${application.gravatar.cache.sweep-interval-ms:600000}",
+        fixedDelayString = "${application.gravatar.cache.sweep-interval-ms:600000}")
+    public void sweep() {
+        if (persistenceDirectory == null || !Files.isDirectory(persistenceDirectory)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<PersistedEntry> entries = new ArrayList<>();
+        long totalBytes = 0;
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(persistenceDirectory, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(file) || file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    continue;
+                }
+                GravatarImage header;
+                long size;
+                try (InputStream is = Files.newInputStream(file);
+                     DataInputStream in = new DataInputStream(is)) {
+                    header = read(in, false);
+                    size = Files.size(file);
+                } catch (NoSuchFileException e) {
+                    // replaced or deleted concurrently
+                    continue;
+                } catch (IOException | IllegalArgumentException e) {
+                    header = null;
+                    size = 0;
+                }
+                if (header == null || header.staleUntil <= now) {
+                    deleteQuietly(file);
+                    deleted++;
+                    continue;
+                }
+                entries.add(new PersistedEntry(file, size, header.staleUntil));
+                totalBytes += size;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Unable to sweep the Gravatar cache directory {}: {}", persistenceDirectory, e.getMessage());
+            return;
+        }
+        if (totalBytes > properties.getMaxDiskBytes()) {
+            entries.sort(Comparator.comparingLong(entry -> entry.staleUntil));
+            for (PersistedEntry entry : entries) {
+                if (totalBytes <= properties.getMaxDiskBytes()) {
+                    break;
+                }
+                deleteQuietly(entry.file);
+                totalBytes -= entry.size;
+                deleted++;
+            }
+        }
+        log.debug("Swept {} files from the Gravatar cache directory, {} bytes left", deleted, totalBytes);
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Unable to delete Gravatar cache file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void persist(Key key, GravatarImage image) {
+        if (persistenceDirectory == null) {
+            return;
+        }
+        Path target = resolve(key);
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_SUFFIX);
+            try {
+                try (OutputStream os = Files.newOutputStream(temp);
+                     DataOutputStream out = new DataOutputStream(os)) {
+                    out.writeInt(FILE_VERSION);
+                    out.writeInt(image.status.value());
+                    writeNullable(out, image.contentType);
+                    writeNullable(out, image.etag);
+                    out.writeLong(image.lastModified);
+                    out.writeLong(image.freshUntil);
+                    out.writeLong(image.staleUntil);
+                    out.writeInt(image.data.length);
+                    out.write(image.data);
+                }
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // the memory copy is enough to serve it
+            log.warn("Unable to persist Gravatar image {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private Path resolve(Key key) {
+        // the hash is hex, safe as a file name
+        return persistenceDirectory.resolve(key.hash.substring(0, 2)).resolve(key.hash + "-" + key.size);
+    }
+
+    private static final class PersistedEntry {
+
+        private final Path file;
+        private final long size;
+        private final long staleUntil;
+
+        private PersistedEntry(Path file, long size, long staleUntil) {
+            this.file = file;
+            this.size = size;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    private static final class Key {
+
+        private final String hash;
+        private final int size;
+
+        private Key(String hash, int size) {
+            this.hash = hash;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return size == key.size && hash.equals(key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hash, size);
+        }
+
+        @Override
+        public String toString() {
+            return hash + "-" + size;
+        }
+    }
+
+    /**
+     * A Gravatar answer, either an image with its validators or a status without body.
+     */
+    public static final class GravatarImage {
+
+        private final HttpStatus status;
+        private final byte[] data;
+        private final String contentType;
+        private final String etag;
+        private final long lastModified;
+        private final long freshUntil;
+        private final long staleUntil;
+
+        private GravatarImage(HttpStatus status, byte[] data, String contentType, String etag,
+                long lastModified, long freshUntil, long staleUntil) {
+            this.status = status;
+            this.data = data;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+        }
+
+        private GravatarImage withStaleUntil(long staleUntil) {
+            return new GravatarImage(status, data, contentType, etag, lastModified, freshUntil, staleUntil);
+        }
+
+        private boolean isFresh(long now) {
+            return now < freshUntil;
+        }
+
+        public boolean isFound() {
+            return status == HttpStatus.OK;
+        }
+
+        public HttpStatus getStatus() {
+            return status;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * The upstream ETag, quoted, or {@code null}.
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Last modification time in milliseconds since the epoch, or -1 if unknown.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Seconds the image stays fresh from now, 0 once stale.
+         */
+        public long getRemainingFreshnessSeconds() {
+            return Math.max(0, TimeUnit.MILLISECONDS.toSeconds(freshUntil - System.currentTimeMillis()));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.entando.plugin.avatar.service.impl;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Resizes and encodes avatar images.
+ * <p>
+ * Renditions are generated once at upload time, one task per size on the {@code taskExecutor},
+ * so that serving a given size never involves any image processing.
+ */
+@Component
+public class AvatarRenditionGenerator {
+
+    private final Executor taskExecutor;
+
+    public AvatarRenditionGenerator(@Qualifier("taskExecutor") Executor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Generate the renditions of an image in parallel.
+     *
+     * @param source the uploaded image.
+     * @param widths the widths of the renditions, heights keep the {@code ratioWidth} x {@code ratioHeight} ratio.
+     * @param format the ImageIO format name the renditions are encoded to.
+     * @return the encoded renditions by width.
+     */
+    public Map<Integer, byte[]> generate(BufferedImage source, Collection<Integer> widths,
+            int ratioWidth, int ratioHeight, String format) throws IOException {
+
+        Map<Integer, CompletableFuture<byte[]>> tasks = new LinkedHashMap<>();
+        for (Integer width : widths) {
+            int height = Math.max(1, Math.round((float) width * ratioHeight / ratioWidth));
+            tasks.put(width, submit(() -> {
+                try {
+                    return encode(scale(source, width, height), format);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        Map<Integer, byte[]> renditions = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Integer, CompletableFuture<byte[]>> task : tasks.entrySet()) {
+                renditions.put(task.getKey(), task.getValue().join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        return renditions;
+    }
+
+    private CompletableFuture<byte[]> submit(Supplier<byte[]> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, taskExecutor);
+        } catch (RejectedExecutionException e) {
+            // executor saturated, the upload thread does the work itself
+            return CompletableFuture.completedFuture(task.get());
+        }
+    }
+
+    /**
+     * Resize an image, halving it step by step when shrinking by more than a factor two so
+     * that bilinear interpolation doesn't skip source pixels.
+     */
+    public static BufferedImage scale(BufferedImage source, int width, int height) {
+        int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = source;
+        do {
+            int stepWidth = Math.max(width, current.getWidth() / 2);
+            int stepHeight = Math.max(height, current.getHeight() / 2);
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (current.getWidth() != width || current.getHeight() != height);
+        return current;
+    }
+
+    public static byte[] encode(BufferedImage image, String format) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        // buffered in memory, where ImageIO.write() would go through a temporary file by default
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream();
+                ImageOutputStream output = new MemoryCacheImageOutputStream(os)) {
+            writer.setOutput(output);
+            writer.write(image);
+            output.flush();
+            return os.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -2,27 +2,55 @@ package org.entando.plugin.avatar.service.impl;
 
 import static org.hibernate.id.IdentifierGenerator.ENTITY_NAME;
 
+import org.entando.plugin.avatar.service.AvatarImageCache;
 import org.entando.plugin.avatar.service.AvatarService;
+import org.entando.plugin.avatar.service.AvatarStorage;
 import org.entando.plugin.avatar.web.rest.errors.BadRequestAlertException;
+import org.entando.plugin.avatar.config.ApplicationProperties;
 import org.entando.plugin.avatar.config.AvatarPluginConfig;
 import org.entando.plugin.avatar.config.AvatarPluginConfigManager;
 import org.entando.plugin.avatar.domain.Avatar;
 import org.entando.plugin.avatar.repository.AvatarRepository;
+import org.entando.plugin.avatar.service.util.ContentHashUtil;
+import org.entando.plugin.avatar.service.util.ImageFormat;
+import org.entando.plugin.avatar.service.util.ImageMetadataStripper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 /**
  * Service Implementation for managing {@link Avatar}.
@@ -35,14 +63,42 @@ public class AvatarServiceImpl implements AvatarService {
 
     private final AvatarRepository avatarRepository;
     private final AvatarPluginConfigManager avatarPluginConfigManager;
+    private final AvatarImageCache avatarImageCache;
+    private final Map<String, AvatarStorage> storages;
+    private final String defaultStorageType;
+    private final AvatarRenditionGenerator renditionGenerator;
 
-    public AvatarServiceImpl(AvatarRepository avatarRepository, AvatarPluginConfigManager avatarPluginConfigManager) {
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final ApplicationProperties.Upload uploadProperties;
+    private final DistributionSummary batchSizeSummary;
+    private final Timer batchQueryTimer;
+
+    public AvatarServiceImpl(AvatarRepository avatarRepository, AvatarPluginConfigManager avatarPluginConfigManager,
+            AvatarImageCache avatarImageCache, List<AvatarStorage> storages,
+            ApplicationProperties applicationProperties, AvatarRenditionGenerator renditionGenerator,
+            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
         this.avatarRepository = avatarRepository;
         this.avatarPluginConfigManager = avatarPluginConfigManager;
+        this.avatarImageCache = avatarImageCache;
+        this.renditionGenerator = renditionGenerator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.uploadProperties = applicationProperties.getUpload();
+        this.batchSizeSummary = DistributionSummary.builder("avatar.batch.size")
+            .description("Usernames requested per batch")
+            .register(meterRegistry);
+        this.batchQueryTimer = Timer.builder("avatar.batch.db")
+            .description("Time spent querying the avatars of a batch")
+            .register(meterRegistry);
+        this.storages = storages.stream().collect(Collectors.toMap(AvatarStorage::getType, Function.identity()));
+        this.defaultStorageType = applicationProperties.getStorage().getType();
+        getStorage(defaultStorageType);
     }
 
     /**
-     * Save a avatar.
+     * Save a avatar. The fields describing its stored image are only written by {@link #upload}: they are
+     * kept as persisted, and left empty on creation.
      *
      * @param avatar the entity to save.
      * @return the persisted entity.
@@ -50,6 +106,18 @@ public class AvatarServiceImpl implements AvatarService {
     @Override
     public Avatar save(Avatar avatar) {
         log.debug("Request to save Avatar : {}", avatar);
+        Avatar previous = avatar.getId() == null ? null : avatarRepository.findById(avatar.getId()).orElse(null);
+        if (previous != null) {
+            avatarImageCache.evict(previous.getUsername());
+        }
+        avatar.imageSize(previous == null ? null : previous.getImageSize())
+            .imageWidth(previous == null ? null : previous.getImageWidth())
+            .imageHeight(previous == null ? null : previous.getImageHeight())
+            .contentHash(previous == null ? null : previous.getContentHash())
+            .lastModified(previous == null ? null : previous.getLastModified())
+            .renditionSizes(previous == null ? null : previous.getRenditionSizes())
+            .storage(previous == null ? null : previous.getStorage());
+        avatarImageCache.evict(avatar.getUsername());
         return avatarRepository.save(avatar);
     }
 
@@ -85,9 +153,18 @@ public class AvatarServiceImpl implements AvatarService {
      * @param id the id of the entity.
      */
     @Override
-    public void delete(Long id) {
+    public void delete(Long id) throws IOException {
         log.debug("Request to delete Avatar : {}", id);
-        avatarRepository.deleteById(id);
+        Optional<Avatar> avatar = avatarRepository.findById(id);
+        if (avatar.isPresent()) {
+            delete(avatar.get());
+        }
+    }
+
+    private void delete(Avatar avatar) throws IOException {
+        avatarImageCache.evict(avatar.getUsername());
+        getStorage(avatar).delete(avatar);
+        avatarRepository.delete(avatar);
     }
 
     @Override
@@ -98,40 +175,344 @@ public class AvatarServiceImpl implements AvatarService {
     }
 
     @Override
-    public Avatar upload(String username, MultipartFile image) throws IOException {
+    @Transactional(readOnly = true)
+    public List<Avatar> findByUsernames(Collection<String> usernames) {
+        log.debug("Request to get the Avatars of {} users", usernames.size());
+        batchSizeSummary.record(usernames.size());
+        return batchQueryTimer.record(() -> avatarRepository.findAllByUsernameIn(usernames));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<byte[]> findImageData(Avatar avatar, int rendition) throws IOException {
+        log.debug("Request to get the image {} of Avatar : {}", rendition, avatar.getId());
+        return getStorage(avatar).load(avatar, rendition);
+    }
 
+    @Override
+    public boolean isImageStreamed(Avatar avatar) {
+        return getStorage(avatar).isStreaming();
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public boolean transferImage(Avatar avatar, int rendition, WritableByteChannel target) throws IOException {
+        log.debug("Request to transfer the image {} of Avatar : {}", rendition, avatar.getId());
+        return getStorage(avatar).transferTo(avatar, rendition, target);
+    }
+
+    /**
+     * The configured rendition width or image width nearest to {@code size}, with the same tie
+     * rule as {@link #resolveRendition}.
+     */
+    @Override
+    public Integer roundSize(Integer size) {
         AvatarPluginConfig avatarConfig = avatarPluginConfigManager.getAvatarPluginConfig();
+        if (size == null || avatarConfig.getRenditionSizes() == null) {
+            return null;
+        }
+        int best = avatarConfig.getImageWidth();
+        for (int width : avatarConfig.getRenditionSizes()) {
+            int distance = Math.abs(width - size);
+            int bestDistance = Math.abs(best - size);
+            if (width > 0 && (distance < bestDistance || (distance == bestDistance && width > best))) {
+                best = width;
+            }
+        }
+        return best == avatarConfig.getImageWidth() ? null : best;
+    }
 
-        String fileName = image.getOriginalFilename();
-        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).trim();
+    /**
+     * The rendition whose width is the nearest to {@code size}, the larger one on ties so that
+     * clients only ever scale down.
+     */
+    @Override
+    public int resolveRendition(Avatar avatar, Integer size) {
+        if (size == null || avatar.getRenditionSizes() == null || avatar.getRenditionSizes().isEmpty()) {
+            return AvatarStorage.ORIGINAL;
+        }
+        int best = AvatarStorage.ORIGINAL;
+        int bestWidth = avatar.getImageWidth() == null ? Integer.MAX_VALUE : avatar.getImageWidth();
+        for (String rendition : avatar.getRenditionSizes().split(",")) {
+            int width = Integer.parseInt(rendition);
+            int distance = Math.abs(width - size);
+            int bestDistance = Math.abs(bestWidth - size);
+            if (distance < bestDistance || (distance == bestDistance && width > bestWidth)) {
+                best = width;
+                bestWidth = width;
+            }
+        }
+        return best;
+    }
 
-        if (!avatarConfig.getImageTypes().contains(extension)) {
-            throw new AvatarUploadException("Invalid image type: " + extension);
+    /**
+     * Upload the image of a user, replacing the previous one if any.
+     * <p>
+     * The image is read, validated and processed without any transaction, only the final
+     * writes are transactional. The duration and output size of each stage are recorded
+     * with the format and outcome of the upload, see {@link UploadMetrics}.
+     */
+    @Override
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Avatar upload(String username, MultipartFile image) throws IOException {
+        UploadMetrics metrics = new UploadMetrics(meterRegistry);
+        try {
+            Avatar avatar = upload(username, image, metrics);
+            metrics.accepted();
+            return avatar;
+        } catch (AvatarUploadException e) {
+            metrics.rejected(e.getReason());
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            metrics.failed();
+            throw e;
         }
+    }
+
+    private Avatar upload(String username, MultipartFile image, UploadMetrics metrics) throws IOException {
+
+        AvatarPluginConfig avatarConfig = avatarPluginConfigManager.getAvatarPluginConfig();
 
         if (image.getSize() > avatarConfig.getImageMaxSize() * 1024) {
-            throw new AvatarUploadException("Image size too big. Max allowed " + avatarConfig.getImageMaxSize() + " MB");
+            metrics.bytes("read", image.getSize());
+            throw new AvatarUploadException(AvatarUploadException.Reason.TOO_BIG,
+                "Image size too big. Max allowed " + avatarConfig.getImageMaxSize() + " MB");
         }
 
-        Avatar avatar = new Avatar();
+        long read = metrics.start();
+        byte[] upload = image.getBytes();
+        metrics.stage("read", read, upload.length);
+
+        long sniff = metrics.start();
+        ImageFormat format = ImageFormat.sniff(upload).orElse(null);
+        metrics.stage("sniff", sniff);
+        if (format != null) {
+            metrics.format(format);
+        }
+        if (format == null || !format.isAllowed(avatarConfig.getImageTypes())) {
+            throw new AvatarUploadException(AvatarUploadException.Reason.INVALID_TYPE,
+                "Invalid image type" + (format == null ? "" : ": " + format.getFormatName()));
+        }
 
-        try (InputStream in = image.getInputStream()) {
-            BufferedImage bufImg = ImageIO.read(in);
-            if (bufImg.getWidth() != avatarConfig.getImageWidth()
-                    || bufImg.getHeight() != avatarConfig.getImageHeight()) {
-                throw new AvatarUploadException("Wrong image dimensions");
+        List<Integer> renditionSizes = Optional.ofNullable(avatarConfig.getRenditionSizes())
+            .orElse(Collections.emptyList());
+        int width = avatarConfig.getImageWidth();
+        int height = avatarConfig.getImageHeight();
+
+        Dimension dimension = readDimension(upload, format, metrics);
+        long validate = metrics.start();
+        try {
+            if ((long) dimension.width * dimension.height > uploadProperties.getMaxPixels()) {
+                throw new AvatarUploadException(AvatarUploadException.Reason.TOO_MANY_PIXELS,
+                    "Image too large. Max allowed " + uploadProperties.getMaxPixels() + " pixels");
+            }
+            if (renditionSizes.isEmpty()
+                    ? dimension.width != width || dimension.height != height
+                    : dimension.width < width || (long) dimension.width * height != (long) dimension.height * width) {
+                throw new AvatarUploadException(AvatarUploadException.Reason.WRONG_DIMENSIONS, "Wrong image dimensions");
             }
+        } finally {
+            metrics.stage("validate", validate);
+        }
+
+        // renditions are never upscaled, nor duplicates of the image itself
+        List<Integer> renditionWidths = renditionSizes.stream()
+            .filter(size -> size > 0 && size != width && size <= dimension.width)
+            .distinct().sorted().collect(Collectors.toList());
+
+        byte[] data = dimension.width == width && dimension.height == height && uploadProperties.isPassThrough()
+            ? passThrough(upload, format, metrics) : null;
+
+        Map<Integer, byte[]> renditions = Collections.emptyMap();
+        if (data == null || !renditionWidths.isEmpty()) {
+            BufferedImage bufImg = decode(upload, format, metrics);
 
-            try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-                ImageIO.write(bufImg, extension, os);
-                avatar.setImage(os.toByteArray());
+            long resize = metrics.start();
+            renditions = renditionGenerator.generate(bufImg, renditionWidths, width, height, format.getFormatName());
+            BufferedImage stored = data != null || bufImg.getWidth() == width ? bufImg
+                : AvatarRenditionGenerator.scale(bufImg, width, height);
+            metrics.stage("resize", resize, size(renditions));
+
+            if (data == null) {
+                long encode = metrics.start();
+                data = AvatarRenditionGenerator.encode(stored, format.getFormatName());
+                metrics.stage("encode", encode, data.length);
+                uploadPathCounter("reencoded").increment();
             }
         }
 
-        avatar.setImageContentType(image.getContentType());
+        Avatar avatar = new Avatar();
+        avatar.setImageWidth(width);
+        avatar.setImageHeight(height);
+        avatar.setImageContentType(format.getContentType());
         avatar.setUsername(username);
+        avatar.setImageSize((long) data.length);
+        avatar.setContentHash(ContentHashUtil.sha256Hex(data));
+        avatar.setLastModified(Instant.now());
+        avatar.setRenditionSizes(renditions.isEmpty() ? null
+            : renditions.keySet().stream().map(String::valueOf).collect(Collectors.joining(",")));
 
-        return avatarRepository.save(avatar);
+        AvatarStorage storage = getStorage(Optional.ofNullable(avatarConfig.getStorage()).orElse(defaultStorageType));
+        avatar.setStorage(storage.getType());
+
+        return persist(avatar, storage, data, renditions, metrics);
+    }
+
+    private static long size(Map<Integer, byte[]> renditions) {
+        long size = 0;
+        for (byte[] rendition : renditions.values()) {
+            size += rendition.length;
+        }
+        return size;
+    }
+
+    private static List<Integer> getRenditionWidths(Avatar avatar) {
+        if (avatar.getRenditionSizes() == null || avatar.getRenditionSizes().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(avatar.getRenditionSizes().split(",")).map(Integer::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * Store a processed upload in a transaction of its own, unless the caller has one, so that a
+     * connection is only held for the writes.
+     */
+    private Avatar persist(Avatar avatar, AvatarStorage storage, byte[] data, Map<Integer, byte[]> renditions,
+            UploadMetrics metrics) throws IOException {
+        long persist = metrics.start();
+        try {
+            try {
+                return transactionTemplate.execute(status -> upsert(avatar, storage, data, renditions));
+            } catch (DataIntegrityViolationException e) {
+                // a concurrent first upload of the same user won the insert, this one becomes an update
+                log.debug("Avatar of {} created concurrently, updating it", avatar.getUsername());
+                return transactionTemplate.execute(status -> upsert(avatar, storage, data, renditions));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            metrics.stage("persist", persist, data.length + size(renditions));
+        }
+    }
+
+    private Avatar upsert(Avatar upload, AvatarStorage storage, byte[] data, Map<Integer, byte[]> renditions) {
+        try {
+            Avatar avatar = avatarRepository.findByUsername(upload.getUsername()).orElse(null);
+            if (avatar == null) {
+                avatar = upload;
+            } else {
+                if (!storage.getType().equals(avatar.getStorage())) {
+                    getStorage(avatar).delete(avatar);
+                } else if (!Objects.equals(avatar.getContentHash(), upload.getContentHash())
+                        || !renditions.keySet().containsAll(getRenditionWidths(avatar))) {
+                    // images of the previous upload that the new one doesn't overwrite
+                    storage.deleteReplaced(avatar, upload.getContentHash(), renditions.keySet());
+                }
+                avatar.imageContentType(upload.getImageContentType())
+                    .imageSize(upload.getImageSize())
+                    .imageWidth(upload.getImageWidth())
+                    .imageHeight(upload.getImageHeight())
+                    .contentHash(upload.getContentHash())
+                    .lastModified(upload.getLastModified())
+                    .renditionSizes(upload.getRenditionSizes())
+                    .storage(upload.getStorage());
+            }
+
+            avatarImageCache.evict(avatar.getUsername());
+            Avatar result = avatarRepository.saveAndFlush(avatar);
+            storage.store(result, AvatarStorage.ORIGINAL, data);
+            for (Map.Entry<Integer, byte[]> rendition : renditions.entrySet()) {
+                storage.store(result, rendition.getKey(), rendition.getValue());
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the dimensions of an uploaded image from its header alone, so that invalid or
+     * oversized images are rejected before any pixel is decoded.
+     */
+    private Dimension readDimension(byte[] upload, ImageFormat format, UploadMetrics metrics) throws IOException {
+        long header = metrics.start();
+        ImageReader reader = getImageReader(format);
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(upload))) {
+            reader.setInput(in, true, true);
+            return new Dimension(reader.getWidth(0), reader.getHeight(0));
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new AvatarUploadException(AvatarUploadException.Reason.INVALID_IMAGE, "Invalid image", e);
+        } finally {
+            reader.dispose();
+            metrics.stage("header", header);
+        }
+    }
+
+    private BufferedImage decode(byte[] upload, ImageFormat format, UploadMetrics metrics) throws IOException {
+        long decode = metrics.start();
+        ImageReader reader = getImageReader(format);
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(upload))) {
+            reader.setInput(in, true, true);
+            return reader.read(0);
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new AvatarUploadException(AvatarUploadException.Reason.INVALID_IMAGE, "Invalid image", e);
+        } finally {
+            reader.dispose();
+            metrics.stage("decode", decode);
+        }
+    }
+
+    private static ImageReader getImageReader(ImageFormat format) {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format.getFormatName());
+        if (!readers.hasNext()) {
+            throw new AvatarUploadException(AvatarUploadException.Reason.INVALID_TYPE,
+                "Invalid image type: " + format.getFormatName());
+        }
+        return readers.next();
+    }
+
+    /**
+     * The upload as it will be stored when it already has the expected format and dimensions,
+     * or {@code null} when it has to be re-encoded.
+     */
+    private byte[] passThrough(byte[] upload, ImageFormat format, UploadMetrics metrics) {
+        if (!uploadProperties.isStripMetadata()) {
+            uploadPathCounter("passthrough").increment();
+            return upload;
+        }
+        long strip = metrics.start();
+        try {
+            byte[] stripped = ImageMetadataStripper.strip(upload, format);
+            metrics.stage("strip", strip, stripped.length);
+            uploadPathCounter("stripped").increment();
+            return stripped;
+        } catch (IllegalArgumentException e) {
+            metrics.stage("strip", strip);
+            log.debug("Unable to strip the metadata of the uploaded image, re-encoding it: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Counter uploadPathCounter(String path) {
+        return Counter.builder("avatar.upload.path")
+            .description("Uploads stored as they are, with their metadata stripped, or re-encoded")
+            .tag("path", path)
+            .register(meterRegistry);
+    }
+
+    /**
+     * The backend holding the image of an avatar, images stored before backends were recorded are in the database.
+     */
+    private AvatarStorage getStorage(Avatar avatar) {
+        return getStorage(Optional.ofNullable(avatar.getStorage()).orElse(DatabaseAvatarStorage.TYPE));
+    }
+
+    private AvatarStorage getStorage(String type) {
+        AvatarStorage storage = storages.get(type);
+        if (storage == null) {
+            throw new IllegalStateException("Unknown avatar storage: " + type + ", expected one of " + storages.keySet());
+        }
+        return storage;
     }
 
     /**
@@ -140,7 +521,11 @@ public class AvatarServiceImpl implements AvatarService {
      * @param id the id of the entity
      */
     @Override
-    public void deleteByUsername(String username) {
+    public void deleteByUsername(String username) throws IOException {
         log.debug("Request to delete Avatar of {}", username);
-        avatarRepository.deleteByUsername(username);
-    }}
+        avatarImageCache.evict(username);
+        for (Avatar avatar : avatarRepository.findAllByUsername(username)) {
+            delete(avatar);
+        }
+    }
+}
@@ -2,23 +2,64 @@ package org.entando.plugin.avatar.service.impl;
 
 public class AvatarUploadException extends RuntimeException {
 
+    /**
+     * Why an upload was rejected, as tagged on the upload metrics.
+     */
+    public enum Reason {
+        TOO_BIG("too-big"),
+        INVALID_TYPE("invalid-type"),
+        TOO_MANY_PIXELS("too-many-pixels"),
+        WRONG_DIMENSIONS("wrong-dimensions"),
+        INVALID_IMAGE("invalid-image"),
+        OTHER("other");
+
+        private final String tag;
+
+        Reason(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final Reason reason;
+
     public AvatarUploadException() {
+        this.reason = Reason.OTHER;
     }
 
     public AvatarUploadException(String message) {
-        super(message);
+        this(Reason.OTHER, message);
     }
 
     public AvatarUploadException(String message, Throwable cause) {
-        super(message, cause);
+        this(Reason.OTHER, message, cause);
     }
 
     public AvatarUploadException(Throwable cause) {
         super(cause);
+        this.reason = Reason.OTHER;
     }
 
     public AvatarUploadException(String message, Throwable cause, boolean enableSuppression,
             boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
+        this.reason = Reason.OTHER;
+    }
+
+    public AvatarUploadException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public AvatarUploadException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
     }
 }
@@ -0,0 +1,98 @@
+package org.entando.plugin.avatar.service.impl;
+
+import org.entando.plugin.avatar.domain.Avatar;
+import org.entando.plugin.avatar.domain.AvatarImage;
+import org.entando.plugin.avatar.domain.AvatarRendition;
+import org.entando.plugin.avatar.repository.AvatarImageRepository;
+import org.entando.plugin.avatar.repository.AvatarRenditionRepository;
+import org.entando.plugin.avatar.service.AvatarStorage;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Default {@link AvatarStorage}, keeping the images in the {@code avatar_image} table and
+ * their renditions in the {@code avatar_rendition} table.
+ */
+@Component
+@Transactional
+public class DatabaseAvatarStorage implements AvatarStorage {
+
+    public static final String TYPE = "database";
+
+    private final AvatarImageRepository avatarImageRepository;
+    private final AvatarRenditionRepository avatarRenditionRepository;
+
+    public DatabaseAvatarStorage(AvatarImageRepository avatarImageRepository,
+            AvatarRenditionRepository avatarRenditionRepository) {
+        this.avatarImageRepository = avatarImageRepository;
+        this.avatarRenditionRepository = avatarRenditionRepository;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void store(Avatar avatar, int rendition, byte[] data) {
+        if (rendition != ORIGINAL) {
+            AvatarRendition avatarRendition = avatarRenditionRepository.findOneByAvatarIdAndSize(avatar.getId(), rendition)
+                .orElseGet(() -> new AvatarRendition().avatar(avatar).size(rendition));
+            avatarRenditionRepository.save(avatarRendition.data(data));
+        } else if (avatarImageRepository.updateData(avatar.getId(), data) == 0) {
+            avatarImageRepository.save(new AvatarImage().avatar(avatar).data(data));
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<byte[]> load(Avatar avatar, int rendition) {
+        if (rendition != ORIGINAL) {
+            return avatarRenditionRepository.findOneByAvatarIdAndSize(avatar.getId(), rendition)
+                .map(AvatarRendition::getData);
+        }
+        return avatarImageRepository.findById(avatar.getId()).map(AvatarImage::getData);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean transferTo(Avatar avatar, int rendition, WritableByteChannel target) throws IOException {
+        Optional<byte[]> data = load(avatar, rendition);
+        if (!data.isPresent()) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data.get());
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return true;
+    }
+
+    @Override
+    public void deleteReplaced(Avatar avatar, String contentHash, Collection<Integer> keep) {
+        // rows are overwritten in place, only the renditions at other widths are left over
+        if (keep.isEmpty()) {
+            // an empty "not in" list is not valid SQL on every database
+            avatarRenditionRepository.deleteByAvatarId(avatar.getId());
+        } else {
+            avatarRenditionRepository.deleteByAvatarIdAndSizeNotIn(avatar.getId(), keep);
+        }
+    }
+
+    @Override
+    public void delete(Avatar avatar) {
+        avatarRenditionRepository.deleteByAvatarId(avatar.getId());
+        avatarImageRepository.deleteByAvatarId(avatar.getId());
+    }
+}
@@ -0,0 +1,263 @@
+package org.entando.plugin.avatar.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.service.AvatarImageCache.CachedImage;
+import org.entando.plugin.avatar.service.util.ImageFormat;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the avatar of users without image: a symmetric 5 x 5 identicon, whose cells and color
+ * are taken from a seed, the MD5 of the username.
+ * <p>
+ * The same seed always gives the same image, so generated avatars are memoized by seed, size and
+ * format in a cache bounded by bytes, and can be cached by clients forever under a URL naming the seed.
+ * <p>
+ * Images are either rasterized to PNG, or written to SVG from a template, which involves no image
+ * processing at all and gives a few hundred bytes whatever the size.
+ */
+@Component
+public class DefaultAvatarGenerator {
+
+    public static final String FORMAT_PNG = "png";
+
+    public static final String FORMAT_SVG = "svg";
+
+    public static final String SVG_CONTENT_TYPE = "image/svg+xml";
+
+    private static final String CACHE_NAME = "avatar.generated";
+
+    /**
+     * Same tag keys as the caches registered by Spring Boot, which Prometheus requires for a given meter name.
+     */
+    private static final Tags CACHE_TAGS = Tags.of("cacheManager", "defaultAvatarGenerator", "name", CACHE_NAME);
+
+    /**
+     * Part of the validators, to be changed along with the drawing so that clients don't keep previous images.
+     */
+    private static final String VERSION = "v1";
+
+    private static final Pattern SEED = Pattern.compile("[0-9a-f]{32}");
+
+    private static final int GRID = 5;
+
+    /**
+     * Light grey, the same for all red, green and blue.
+     */
+    private static final byte BACKGROUND = (byte) 0xf0;
+
+    private final Cache<Key, CachedImage> cache;
+    private final int maxSize;
+
+    public DefaultAvatarGenerator(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        ApplicationProperties.DefaultAvatar defaultAvatar = applicationProperties.getDefaultAvatar();
+        this.maxSize = defaultAvatar.getMaxSize();
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(defaultAvatar.getCacheMaxBytes())
+            .weigher((Key key, CachedImage image) -> image.getData().length)
+            .recordStats()
+            .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME, CACHE_TAGS);
+    }
+
+    /**
+     * @return the seed of the avatar generated for a user.
+     */
+    public static String seedOf(String username) {
+        return DigestUtils.md5DigestAsHex(username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static boolean isValidSeed(String seed) {
+        return seed != null && SEED.matcher(seed).matches();
+    }
+
+    /**
+     * Get the avatar of a seed, generating it if not cached. Dimensions are capped to
+     * {@code application.default-avatar.max-size}, keeping their ratio.
+     *
+     * @param seed a seed given by {@link #seedOf(String)}.
+     * @param format {@link #FORMAT_PNG} or {@link #FORMAT_SVG}.
+     */
+    public CachedImage generate(String seed, int width, int height, String format) {
+        if (!FORMAT_PNG.equals(format) && !FORMAT_SVG.equals(format)) {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+        if (!isValidSeed(seed)) {
+            throw new IllegalArgumentException("Invalid seed " + seed);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid dimensions " + width + "x" + height);
+        }
+        int largest = Math.max(width, height);
+        if (largest > maxSize) {
+            width = (int) Math.max(1, (long) width * maxSize / largest);
+            height = (int) Math.max(1, (long) height * maxSize / largest);
+        }
+        return cache.get(new Key(seed, width, height, format),
+            key -> FORMAT_SVG.equals(key.format) ? renderSvg(key) : render(key));
+    }
+
+    private static CachedImage render(Key key) {
+        byte[] digest = decode(key.seed);
+        // two colors, so a one bit palette: far fewer bytes to write and compress than in RGB
+        BufferedImage image = new BufferedImage(key.width, key.height, BufferedImage.TYPE_BYTE_BINARY, palette(digest));
+        // written straight to the raster, packed eight pixels a byte, the background being zero
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (key.width + 7) / 8;
+
+        // half a cell of margin on each side
+        double cellWidth = key.width / (GRID + 1.0);
+        double cellHeight = key.height / (GRID + 1.0);
+        for (int row = 0; row < GRID; row++) {
+            int y0 = (int) Math.round(cellHeight * (row + 0.5));
+            int y1 = (int) Math.round(cellHeight * (row + 1.5));
+            for (int column = 0; column < GRID; column++) {
+                if (!isFilled(digest, row, column)) {
+                    continue;
+                }
+                int x0 = (int) Math.round(cellWidth * (column + 0.5));
+                int x1 = (int) Math.round(cellWidth * (column + 1.5));
+                for (int x = x0; x < x1; x++) {
+                    byte bit = (byte) (0x80 >>> (x & 7));
+                    for (int y = y0; y < y1; y++) {
+                        pixels[y * stride + (x >>> 3)] |= bit;
+                    }
+                }
+            }
+        }
+
+        try {
+            byte[] data = AvatarRenditionGenerator.encode(image, key.format);
+            return new CachedImage(data, ImageFormat.PNG.getContentType(), contentHash(key), -1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Same drawing as {@link #render(Key)}, in a view box of half cells stretched to the image dimensions.
+     */
+    private static CachedImage renderSvg(Key key) {
+        byte[] digest = decode(key.seed);
+        int viewBox = (GRID + 1) * 2;
+        StringBuilder svg = new StringBuilder(512)
+            .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(key.width)
+            .append("\" height=\"").append(key.height)
+            .append("\" viewBox=\"0 0 ").append(viewBox).append(' ').append(viewBox)
+            .append("\" preserveAspectRatio=\"none\" shape-rendering=\"crispEdges\">")
+            .append("<rect width=\"").append(viewBox).append("\" height=\"").append(viewBox)
+            .append("\" fill=\"#");
+        appendHex(svg, BACKGROUND & 0xff, BACKGROUND & 0xff, BACKGROUND & 0xff);
+        svg.append("\"/><path fill=\"#");
+        int color = color(digest);
+        appendHex(svg, (color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff);
+        svg.append("\" d=\"");
+        for (int row = 0; row < GRID; row++) {
+            for (int column = 0; column < GRID; column++) {
+                if (isFilled(digest, row, column)) {
+                    svg.append('M').append(column * 2 + 1).append(' ').append(row * 2 + 1).append("h2v2h-2z");
+                }
+            }
+        }
+        svg.append("\"/></svg>");
+
+        byte[] data = svg.toString().getBytes(StandardCharsets.US_ASCII);
+        return new CachedImage(data, SVG_CONTENT_TYPE, contentHash(key), -1);
+    }
+
+    private static void appendHex(StringBuilder builder, int red, int green, int blue) {
+        String hex = Integer.toHexString((red << 16) | (green << 8) | blue | 0x1000000);
+        builder.append(hex, 1, hex.length());
+    }
+
+    /**
+     * Cells are mirrored around the middle column, the left half and the middle being read from the seed bits.
+     */
+    private static boolean isFilled(byte[] digest, int row, int column) {
+        int half = Math.min(column, GRID - 1 - column);
+        int bit = row * ((GRID + 1) / 2) + half;
+        // the first bytes are used for the color
+        return ((digest[4 + bit / 8] >> (bit % 8)) & 1) == 1;
+    }
+
+    /**
+     * The foreground color, whose hue, saturation and brightness are read from the seed.
+     */
+    private static int color(byte[] digest) {
+        float hue = (((digest[0] & 0xff) << 8) | (digest[1] & 0xff)) / 65536f;
+        float saturation = 0.45f + (digest[2] & 0xff) / 255f * 0.3f;
+        float brightness = 0.55f + (digest[3] & 0xff) / 255f * 0.2f;
+        return Color.HSBtoRGB(hue, saturation, brightness);
+    }
+
+    /**
+     * The background, then the foreground color.
+     */
+    private static IndexColorModel palette(byte[] digest) {
+        int color = color(digest);
+        return new IndexColorModel(1, 2,
+            new byte[] {BACKGROUND, (byte) (color >> 16)},
+            new byte[] {BACKGROUND, (byte) (color >> 8)},
+            new byte[] {BACKGROUND, (byte) color});
+    }
+
+    private static byte[] decode(String seed) {
+        byte[] digest = new byte[seed.length() / 2];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) Integer.parseInt(seed.substring(i * 2, i * 2 + 2), 16);
+        }
+        return digest;
+    }
+
+    private static String contentHash(Key key) {
+        return key.seed + "-" + key.width + "x" + key.height + "-" + VERSION + "-" + key.format;
+    }
+
+    private static final class Key {
+
+        private final String seed;
+        private final int width;
+        private final int height;
+        private final String format;
+
+        private Key(String seed, int width, int height, String format) {
+            this.seed = seed;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && seed.equals(key.seed) && format.equals(key.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(seed, width, height, format);
+        }
+    }
+}
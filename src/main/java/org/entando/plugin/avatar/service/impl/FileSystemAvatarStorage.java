@@ -0,0 +1,217 @@
+package org.entando.plugin.avatar.service.impl;
+
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.domain.Avatar;
+import org.entando.plugin.avatar.service.AvatarStorage;
+import org.entando.plugin.avatar.service.util.ContentHashUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * {@link AvatarStorage} keeping the images as files under {@code application.storage.file-system.root-directory}.
+ * <p>
+ * Files are named after the avatar id and its content hash, suffixed by the width for renditions, and sharded in two levels of
+ * directories taken from the hash of the id, so that no directory grows too large. Writes go to a temporary file which is
+ * then renamed to the target, so readers never see a partially written image. Images are
+ * streamed from their file in chunks, without being loaded whole on the heap.
+ * <p>
+ * A new image never overwrites the files of the previous one: readers switch to it along with the content hash
+ * when the avatar metadata commits, so that an ETag always matches the bytes served. Within a transaction, the
+ * files of the previous image are deleted once it commits, and those of the new one if it rolls back.
+ */
+@Component
+public class FileSystemAvatarStorage implements AvatarStorage {
+
+    public static final String TYPE = "filesystem";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Logger log = LoggerFactory.getLogger(FileSystemAvatarStorage.class);
+
+    private final Path rootDirectory;
+
+    public FileSystemAvatarStorage(ApplicationProperties applicationProperties) {
+        this.rootDirectory = Paths.get(applicationProperties.getStorage().getFileSystem().getRootDirectory())
+            .toAbsolutePath();
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public void store(Avatar avatar, int rendition, byte[] data) throws IOException {
+        Path target = resolve(avatar, rendition);
+        if (avatar.getContentHash() != null && Files.exists(target)) {
+            // the same content, already stored and possibly read under this name
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            // written within the transaction, so that a full disk fails the upload
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            // named after the new content hash, which no reader sees before the metadata commits
+            replace(temp, target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        try {
+                            Files.deleteIfExists(target);
+                        } catch (IOException e) {
+                            log.warn("Unable to delete {}, left as an orphan: {}", target, e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void replace(Path temp, Path target) throws IOException {
+        try {
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                log.warn("Atomic move not supported in {}, replacing {} non atomically", rootDirectory, target);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> load(Avatar avatar, int rendition) throws IOException {
+        try {
+            return Optional.of(Files.readAllBytes(resolve(avatar, rendition)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public boolean transferTo(Avatar avatar, int rendition, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(avatar, rendition), StandardOpenOption.READ)) {
+            // copied through a buffer unless the target is itself a file or socket channel
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void deleteReplaced(Avatar avatar, String contentHash, Collection<Integer> keep) throws IOException {
+        if (!Objects.equals(avatar.getContentHash(), contentHash)) {
+            // the new image has files of its own
+            delete(avatar);
+            return;
+        }
+        Set<String> kept = keep.stream().map(width -> resolve(avatar, width).getFileName().toString())
+            .collect(Collectors.toSet());
+        List<Path> stale = new ArrayList<>();
+        for (Path rendition : listRenditions(avatar)) {
+            if (!kept.contains(rendition.getFileName().toString())) {
+                stale.add(rendition);
+            }
+        }
+        deleteAfterCommit(stale);
+    }
+
+    @Override
+    public void delete(Avatar avatar) throws IOException {
+        List<Path> files = listRenditions(avatar);
+        files.add(resolve(avatar, ORIGINAL));
+        deleteAfterCommit(files);
+    }
+
+    private void deleteAfterCommit(List<Path> files) throws IOException {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                for (Path file : files) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        log.warn("Unable to delete {}, left as an orphan: {}", file, e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private List<Path> listRenditions(Avatar avatar) throws IOException {
+        Path image = resolve(avatar, ORIGINAL);
+        List<Path> renditions = new ArrayList<>();
+        if (Files.isDirectory(image.getParent())) {
+            // renditions are named <image>-<width>, unlike the temporary files of pending writes
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(image.getParent(), image.getFileName() + "-*")) {
+                for (Path rendition : files) {
+                    if (!rendition.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                        renditions.add(rendition);
+                    }
+                }
+            }
+        }
+        return renditions;
+    }
+
+    private Path resolve(Avatar avatar, int rendition) {
+        String id = String.valueOf(avatar.getId());
+        String hash = ContentHashUtil.sha256Hex(id.getBytes());
+        String image = avatar.getContentHash() == null ? id : id + "-" + avatar.getContentHash();
+        String fileName = rendition == ORIGINAL ? image : image + "-" + rendition;
+        return rootDirectory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(fileName);
+    }
+}
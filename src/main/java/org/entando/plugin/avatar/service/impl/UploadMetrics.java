@@ -0,0 +1,124 @@
+package org.entando.plugin.avatar.service.impl;
+
+import org.entando.plugin.avatar.service.util.ImageFormat;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations and sizes of the stages of one upload.
+ * <p>
+ * They are only registered once the upload is over, so that they can be tagged with its format and
+ * outcome: {@code accepted}, {@code rejected} with the {@link AvatarUploadException.Reason reason}
+ * of the rejection, or {@code error}. Not thread safe, an upload is processed by a single thread.
+ */
+final class UploadMetrics {
+
+    static final String UNKNOWN_FORMAT = "unknown";
+
+    private static final String NO_REASON = "none";
+
+    private final MeterRegistry meterRegistry;
+
+    private final long start;
+
+    private final List<Stage> stages = new ArrayList<>(8);
+
+    private String format = UNKNOWN_FORMAT;
+
+    UploadMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.start = start();
+    }
+
+    /**
+     * @return the start time of a stage, to be passed to {@link #stage}.
+     */
+    long start() {
+        return meterRegistry.config().clock().monotonicTime();
+    }
+
+    void stage(String stage, long start) {
+        stage(stage, start, -1);
+    }
+
+    /**
+     * @param bytes the size of the output of the stage, or {@code -1} when it has none.
+     */
+    void stage(String stage, long start, long bytes) {
+        stages.add(new Stage(stage, start() - start, bytes));
+    }
+
+    /**
+     * The size of the input of the upload, when rejected before it is even read.
+     */
+    void bytes(String stage, long bytes) {
+        stages.add(new Stage(stage, -1, bytes));
+    }
+
+    void format(ImageFormat format) {
+        this.format = format.getFormatName();
+    }
+
+    void accepted() {
+        register("accepted", NO_REASON);
+    }
+
+    void rejected(AvatarUploadException.Reason reason) {
+        register("rejected", reason.getTag());
+        Counter.builder("avatar.upload.rejected")
+            .description("Uploads rejected, by reason")
+            .tags("format", format, "reason", reason.getTag())
+            .register(meterRegistry)
+            .increment();
+    }
+
+    void failed() {
+        register("error", NO_REASON);
+    }
+
+    private void register(String outcome, String reason) {
+        Tags tags = Tags.of("format", format, "outcome", outcome, "reason", reason);
+        Timer.builder("avatar.upload")
+            .description("Time spent processing avatar uploads")
+            .tags(tags)
+            .register(meterRegistry)
+            .record(start() - start, TimeUnit.NANOSECONDS);
+        for (Stage stage : stages) {
+            if (stage.nanos >= 0) {
+                Timer.builder("avatar.upload.stage")
+                    .description("Time spent in each stage of the avatar upload")
+                    .tags(tags).tag("stage", stage.name)
+                    .register(meterRegistry)
+                    .record(stage.nanos, TimeUnit.NANOSECONDS);
+            }
+            if (stage.bytes >= 0) {
+                DistributionSummary.builder("avatar.upload.stage.size")
+                    .description("Bytes output by each stage of the avatar upload")
+                    .baseUnit("bytes")
+                    .tags(tags).tag("stage", stage.name)
+                    .register(meterRegistry)
+                    .record(stage.bytes);
+            }
+        }
+    }
+
+    private static final class Stage {
+
+        private final String name;
+        private final long nanos;
+        private final long bytes;
+
+        private Stage(String name, long nanos, long bytes) {
+            this.name = name;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.entando.plugin.avatar.service.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the content hash stored along with the avatar images.
+ */
+public final class ContentHashUtil {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHashUtil() {
+    }
+
+    /**
+     * @param data the bytes to hash.
+     * @return the hex encoded SHA-256 of {@code data}.
+     */
+    public static String sha256Hex(byte[] data) {
+        byte[] digest = newDigest().digest(data);
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.entando.plugin.avatar.service.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Image formats accepted for avatars, recognized from their leading magic bytes rather than
+ * from the file name or the content type sent by the client.
+ */
+public enum ImageFormat {
+
+    PNG("png", "image/png", Arrays.asList("png"),
+        new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'}),
+    JPEG("jpeg", "image/jpeg", Arrays.asList("jpg", "jpeg"),
+        new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff}),
+    GIF("gif", "image/gif", Arrays.asList("gif"),
+        new byte[] {'G', 'I', 'F', '8'}),
+    BMP("bmp", "image/bmp", Arrays.asList("bmp"),
+        new byte[] {'B', 'M'});
+
+    private final String formatName;
+    private final String contentType;
+    private final List<String> extensions;
+    private final byte[] magic;
+
+    ImageFormat(String formatName, String contentType, List<String> extensions, byte[] magic) {
+        this.formatName = formatName;
+        this.contentType = contentType;
+        this.extensions = extensions;
+        this.magic = magic;
+    }
+
+    /**
+     * @return the ImageIO format name.
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Whether the format is one of the image types allowed by the plugin configuration, given as file extensions.
+     */
+    public boolean isAllowed(Collection<String> imageTypes) {
+        return imageTypes != null && imageTypes.stream().map(String::toLowerCase).anyMatch(extensions::contains);
+    }
+
+    /**
+     * Recognize the format of an image from its first bytes.
+     */
+    public static Optional<ImageFormat> sniff(byte[] data) {
+        return Arrays.stream(values()).filter(format -> format.matches(data)).findFirst();
+    }
+
+    private boolean matches(byte[] data) {
+        if (data == null || data.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (data[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package org.entando.plugin.avatar.service.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes descriptive metadata (EXIF, XMP, IPTC, comments, text chunks) from encoded images by
+ * walking their container structure, without decoding any pixel.
+ * <p>
+ * Everything needed to render the image the same way is kept: PNG transparency, gamma and color
+ * profile chunks, JPEG JFIF, ICC profile and Adobe segments. The image data itself is copied
+ * byte for byte. This drops the same information as the decode / re-encode path, including
+ * the EXIF orientation, which ImageIO never applied.
+ */
+public final class ImageMetadataStripper {
+
+    private static final Set<String> PNG_METADATA_CHUNKS = new HashSet<>(
+        Arrays.asList("tEXt", "zTXt", "iTXt", "tIME", "eXIf"));
+
+    private static final int JPEG_APP1 = 0xe1;
+    private static final int JPEG_APP13 = 0xed;
+    private static final int JPEG_COM = 0xfe;
+    private static final int JPEG_SOS = 0xda;
+
+    private ImageMetadataStripper() {
+    }
+
+    /**
+     * @return the image without its metadata, or the image itself for formats without metadata handling.
+     * @throws IllegalArgumentException if the container structure is malformed.
+     */
+    public static byte[] strip(byte[] data, ImageFormat format) {
+        switch (format) {
+            case PNG:
+                return stripPng(data);
+            case JPEG:
+                return stripJpeg(data);
+            default:
+                return data;
+        }
+    }
+
+    private static byte[] stripPng(byte[] data) {
+        // signature, then chunks of length (4), type (4), data (length), crc (4)
+        ByteBuffer in = ByteBuffer.wrap(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(data, 0, 8);
+        int position = 8;
+        boolean end = false;
+        while (!end) {
+            require(position + 8 <= data.length, "Truncated PNG chunk");
+            int length = in.getInt(position);
+            require(length >= 0 && (long) position + 12 + length <= data.length, "Invalid PNG chunk length");
+            String type = new String(data, position + 4, 4, StandardCharsets.US_ASCII);
+            int chunkLength = 12 + length;
+            if (!PNG_METADATA_CHUNKS.contains(type)) {
+                out.write(data, position, chunkLength);
+            }
+            position += chunkLength;
+            end = "IEND".equals(type);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] stripJpeg(byte[] data) {
+        // SOI, then segments of marker (2) and big-endian length (2, including itself) up to the
+        // start of scan, after which the entropy coded data runs to the end of the image
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(data, 0, 2);
+        int position = 2;
+        while (true) {
+            require(position + 4 <= data.length && (data[position] & 0xff) == 0xff, "Invalid JPEG segment");
+            int marker = data[position + 1] & 0xff;
+            if (marker == 0xff) {
+                // fill byte
+                position++;
+                continue;
+            }
+            int length = ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+            require(length >= 2 && position + 2 + length <= data.length, "Invalid JPEG segment length");
+            if (marker == JPEG_SOS) {
+                out.write(data, position, data.length - position);
+                return out.toByteArray();
+            }
+            if (marker != JPEG_APP1 && marker != JPEG_APP13 && marker != JPEG_COM) {
+                out.write(data, position, 2 + length);
+            }
+            position += 2 + length;
+        }
+    }
+
+    private static void require(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+}
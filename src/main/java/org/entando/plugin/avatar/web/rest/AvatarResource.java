@@ -1,45 +1,60 @@
 package org.entando.plugin.avatar.web.rest;
 
-import org.apache.commons.io.IOUtils;
-import org.entando.plugin.avatar.client.EntandoAuthClient;
+import org.entando.plugin.avatar.config.ApplicationProperties;
 import org.entando.plugin.avatar.config.AvatarPluginConfig;
 import org.entando.plugin.avatar.config.AvatarPluginConfigManager;
 import org.entando.plugin.avatar.domain.Avatar;
 import org.entando.plugin.avatar.domain.AvatarStyle;
+import org.entando.plugin.avatar.service.AvatarImageCache;
+import org.entando.plugin.avatar.service.AvatarImageCache.CachedImage;
 import org.entando.plugin.avatar.service.AvatarService;
+import org.entando.plugin.avatar.service.AvatarStorage;
+import org.entando.plugin.avatar.service.GravatarHashCache;
+import org.entando.plugin.avatar.service.GravatarImageCache;
+import org.entando.plugin.avatar.service.GravatarImageCache.GravatarImage;
+import org.entando.plugin.avatar.service.impl.DefaultAvatarGenerator;
 import org.entando.plugin.avatar.service.impl.AvatarUploadException;
 import org.entando.plugin.avatar.web.rest.errors.BadRequestAlertException;
+import org.entando.plugin.avatar.web.rest.vm.AvatarBatchRequestVM;
+import org.entando.plugin.avatar.web.rest.vm.AvatarBatchVM;
 
+import com.netflix.hystrix.exception.HystrixRuntimeException;
 import io.github.jhipster.web.util.HeaderUtil;
 import io.github.jhipster.web.util.ResponseUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpMethod;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.server.ServletServerHttpResponse;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
 import java.security.Principal;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * REST controller for managing {@link org.entando.plugin.avatar.domain.Avatar}.
@@ -52,20 +67,60 @@ public class AvatarResource {
 
     private static final String ENTITY_NAME = "avatarPluginAvatar";
     private static final String FILE_PARAM = "data";
+    private static final String SIZE_PARAM = "size";
+    private static final MediaType SVG = MediaType.parseMediaType(DefaultAvatarGenerator.SVG_CONTENT_TYPE);
 
     @Value("${jhipster.clientApp.name}")
     private String applicationName;
 
     private final AvatarPluginConfigManager configManager;
     private final AvatarService avatarService;
-    private final EntandoAuthClient authClient;
+    private final GravatarHashCache gravatarHashCache;
+    private final GravatarImageCache gravatarImageCache;
+    private final AvatarImageCache imageCache;
+    private final DefaultAvatarGenerator defaultAvatarGenerator;
+    private final ApplicationProperties.HttpCache httpCacheProperties;
+    private final ApplicationProperties.Gravatar gravatarProperties;
+    private final String imageCacheControl;
+    private final String defaultImageCacheControl;
+    private final boolean defaultImageSvg;
+    private final ApplicationProperties.Batch batchProperties;
 
     public AvatarResource(AvatarService avatarService,
         AvatarPluginConfigManager configManager,
-        EntandoAuthClient authClient ) {
+        GravatarHashCache gravatarHashCache,
+        GravatarImageCache gravatarImageCache,
+        AvatarImageCache imageCache,
+        DefaultAvatarGenerator defaultAvatarGenerator,
+        ApplicationProperties applicationProperties) {
         this.avatarService = avatarService;
         this.configManager = configManager;
-        this.authClient = authClient;
+        this.gravatarHashCache = gravatarHashCache;
+        this.gravatarImageCache = gravatarImageCache;
+        this.imageCache = imageCache;
+        this.defaultAvatarGenerator = defaultAvatarGenerator;
+        this.httpCacheProperties = applicationProperties.getHttpCache();
+        this.gravatarProperties = applicationProperties.getGravatar();
+        this.imageCacheControl = imageCacheControl(applicationProperties.getHttpCache());
+        this.defaultImageCacheControl = defaultImageCacheControl(applicationProperties);
+        this.defaultImageSvg = applicationProperties.getDefaultAvatar().isSvg();
+        this.batchProperties = applicationProperties.getBatch();
+    }
+
+    private static String imageCacheControl(ApplicationProperties.HttpCache httpCache) {
+        CacheControl cacheControl = CacheControl.maxAge(httpCache.getMaxAgeSeconds(), TimeUnit.SECONDS);
+        return (httpCache.isCachePrivate() ? cacheControl.cachePrivate() : cacheControl.cachePublic()).getHeaderValue();
+    }
+
+    /**
+     * Images addressed by seed never change, so clients need not revalidate them even when reloading.
+     */
+    private static String defaultImageCacheControl(ApplicationProperties applicationProperties) {
+        CacheControl cacheControl = CacheControl.maxAge(applicationProperties.getDefaultAvatar().getMaxAgeSeconds(),
+            TimeUnit.SECONDS);
+        // no immutable() before Spring 5.2
+        return (applicationProperties.getHttpCache().isCachePrivate() ? cacheControl.cachePrivate()
+            : cacheControl.cachePublic()).getHeaderValue() + ", immutable";
     }
 
     @PostMapping("/avatars/image/{userId}")
@@ -81,14 +136,162 @@ public class AvatarResource {
     }
 
     @GetMapping("/avatars/image/{userId}")
-    public ResponseEntity<?> getImage(@PathVariable("userId") String userId, HttpServletResponse response)
+    public ResponseEntity<?> getImage(@PathVariable("userId") String userId,
+            @RequestParam(value = SIZE_PARAM, required = false) Integer size,
+            ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+
+        if (size != null && size <= 0) {
+            throw new BadRequestAlertException("Invalid size", ENTITY_NAME, "invalidsize");
+        }
+
+        AvatarStyle style = configManager.getAvatarPluginConfig().getStyle();
+        if (style == AvatarStyle.GRAVATAR) {
+            try {
+                return returnGravatarImage(userId, size, webRequest, response);
+            } catch (HystrixRuntimeException e) {
+                // Gravatar or the auth service failing, or their circuit open: fail fast to what is known locally
+                log.warn("Serving the local avatar of {}, Gravatar style unavailable: {} {}", userId,
+                    e.getFailureType(), e.getMessage());
+            }
+        }
+
+        // only the LOCAL style leaves the users without image without avatar
+        return returnLocalImage(userId, size, style != AvatarStyle.LOCAL, webRequest, response);
+    }
+
+    /**
+     * {@code GET  /avatars/default/:seed} : get a generated avatar by its seed.
+     *
+     * @param seed the MD5 of a username.
+     * @param size the width of the image, the configured one if missing.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the image, cacheable forever,
+     *         or with status {@code 400 (Bad Request)} if the seed is not valid.
+     */
+    @GetMapping("/avatars/default/{seed}")
+    public ResponseEntity<?> getDefaultImage(@PathVariable("seed") String seed,
+            @RequestParam(value = SIZE_PARAM, required = false) Integer size,
+            ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+
+        if (size != null && size <= 0) {
+            throw new BadRequestAlertException("Invalid size", ENTITY_NAME, "invalidsize");
+        }
+        if (!DefaultAvatarGenerator.isValidSeed(seed)) {
+            throw new BadRequestAlertException("Invalid seed", ENTITY_NAME, "invalidseed");
+        }
+
+        return writeImage(generateImage(seed, size, webRequest, response), defaultImageCacheControl, webRequest,
+            response);
+    }
+
+    /**
+     * {@code POST  /avatars/batch} : get the avatars of several users at once.
+     *
+     * @param request the usernames, with the requested size and whether small images should be inlined.
+     * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the avatars by username in body,
+     *         the generated one of the users without image in the {@code DEFAULT} style, the usernames
+     *         without avatar being reported as missing.
+     */
+    @PostMapping("/avatars/batch")
+    public ResponseEntity<AvatarBatchVM> getAvatars(@Valid @RequestBody AvatarBatchRequestVM request)
             throws IOException {
+        log.debug("REST request to get a batch of Avatars : {}", request);
+        Set<String> usernames = new LinkedHashSet<>(request.getUsernames());
+        if (usernames.size() > batchProperties.getMaxSize()) {
+            throw new BadRequestAlertException("Too many usernames. Max allowed " + batchProperties.getMaxSize(),
+                ENTITY_NAME, "batchtoolarge");
+        }
+
+        AvatarBatchVM batch = new AvatarBatchVM();
 
-        if (configManager.getAvatarPluginConfig().getStyle() == AvatarStyle.GRAVATAR) {
-            return returnGravatarImage(userId, response);
+        AvatarPluginConfig avatarConfig = configManager.getAvatarPluginConfig();
+        if (avatarConfig.getStyle() == AvatarStyle.GRAVATAR) {
+            // the users are resolved together, which also warms the cache for the image requests
+            Map<String, String> hashes = gravatarHashCache.getHashes(usernames);
+            // out of range sizes would each be a distinct URL for the same image
+            int gravatarSize = GravatarImageCache.clampSize(
+                request.getSize() == null ? avatarConfig.getImageWidth() : request.getSize());
+            for (String username : usernames) {
+                String hash = hashes.get(username);
+                if (hash == null) {
+                    batch.getMissing().add(username);
+                } else {
+                    batch.getAvatars().put(username, new AvatarBatchVM.Item().url(
+                        gravatarProperties.getMode() == ApplicationProperties.Gravatar.Mode.REDIRECT
+                            ? getAvatarUrl(avatarConfig, hash, gravatarSize)
+                            : getImageUrl(username, request.getSize() == null ? null : gravatarSize)));
+                }
+            }
+            return ResponseEntity.ok(batch);
         }
 
-        return returnLocalImage(userId, response);
+        Map<String, Avatar> avatars = avatarService.findByUsernames(usernames).stream()
+            .collect(Collectors.toMap(Avatar::getUsername, Function.identity()));
+
+        for (String username : usernames) {
+            Avatar avatar = avatars.get(username);
+            if (avatar == null) {
+                if (avatarConfig.getStyle() == AvatarStyle.DEFAULT) {
+                    batch.getAvatars().put(username, new AvatarBatchVM.Item().url(
+                        getDefaultImageUrl(DefaultAvatarGenerator.seedOf(username), request.getSize())));
+                } else {
+                    batch.getMissing().add(username);
+                }
+                continue;
+            }
+            Integer size = avatarService.roundSize(request.getSize());
+            int rendition = avatarService.resolveRendition(avatar, size);
+            String contentHash = renditionHash(avatar.getContentHash(), rendition);
+            AvatarBatchVM.Item item = new AvatarBatchVM.Item()
+                .contentType(avatar.getImageContentType())
+                .etag(getETag(contentHash));
+            byte[] data = request.isInline() ? getInlineData(avatar, size, rendition, contentHash) : null;
+            batch.getAvatars().put(username, data != null ? item.data(data)
+                : item.url(getImageUrl(username, request.getSize())));
+        }
+
+        return ResponseEntity.ok(batch);
+    }
+
+    /**
+     * The image bytes if small enough to be inlined, going through the image cache.
+     *
+     * @param size the requested size, as rounded by {@link AvatarService#roundSize}.
+     */
+    private byte[] getInlineData(Avatar avatar, Integer size, int rendition, String contentHash) throws IOException {
+        // renditions are never larger than the image itself
+        if (avatar.getImageSize() == null || avatar.getImageSize() > batchProperties.getInlineMaxBytes()) {
+            return null;
+        }
+        Optional<CachedImage> cachedImage = imageCache.get(avatar.getUsername(), size);
+        if (!cachedImage.isPresent()) {
+            Optional<byte[]> data = avatarService.findImageData(avatar, rendition);
+            if (!data.isPresent()) {
+                return null;
+            }
+            long lastModified = avatar.getLastModified() == null ? -1 : avatar.getLastModified().toEpochMilli();
+            cachedImage = Optional.of(new CachedImage(data.get(), avatar.getImageContentType(), contentHash, lastModified));
+            imageCache.put(avatar.getUsername(), size, cachedImage.get());
+        }
+        byte[] data = cachedImage.get().getData();
+        return data.length <= batchProperties.getInlineMaxBytes() ? data : null;
+    }
+
+    private static String getImageUrl(String username, Integer size) {
+        ServletUriComponentsBuilder url = ServletUriComponentsBuilder.fromCurrentContextPath();
+        url.path("/api/avatars/image/{username}");
+        if (size != null) {
+            url.queryParam(SIZE_PARAM, size);
+        }
+        return url.buildAndExpand(username).encode().toUriString();
+    }
+
+    private static String getDefaultImageUrl(String seed, Integer size) {
+        ServletUriComponentsBuilder url = ServletUriComponentsBuilder.fromCurrentContextPath();
+        url.path("/api/avatars/default/{seed}");
+        if (size != null) {
+            url.queryParam(SIZE_PARAM, size);
+        }
+        return url.buildAndExpand(seed).encode().toUriString();
     }
 
     @PostMapping("/avatars/image/currentUser")
@@ -98,39 +301,55 @@ public class AvatarResource {
     }
 
     @GetMapping("/avatars/image/currentUser")
-    public ResponseEntity getCurrentUserAvatar(Principal user, HttpServletResponse response)
-            throws IOException {
-        return this.getImage(user.getName(), response);
+    public ResponseEntity getCurrentUserAvatar(Principal user,
+            @RequestParam(value = SIZE_PARAM, required = false) Integer size,
+            ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+        return this.getImage(user.getName(), size, webRequest, response);
     }
 
-    private ResponseEntity<?> returnGravatarImage(String userId, HttpServletResponse response) throws IOException {
+    private ResponseEntity<?> returnGravatarImage(String userId, Integer size, ServletWebRequest webRequest,
+            HttpServletResponse response) throws IOException {
 
-        RestTemplate restTemplate = new RestTemplate();
+        Optional<String> maybeHash = gravatarHashCache.getHash(userId);
+        if (!maybeHash.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
 
-        String email = authClient.getUserDetail(userId).getEmail();
+        AvatarPluginConfig avatarConfig = configManager.getAvatarPluginConfig();
+        // out of range sizes would each be a distinct URL for the same image
+        int gravatarSize = GravatarImageCache.clampSize(size == null ? avatarConfig.getImageWidth() : size);
+        String hash = maybeHash.get();
+
+        if (gravatarProperties.getMode() == ApplicationProperties.Gravatar.Mode.REDIRECT) {
+            // no bytes go through the plugin, and clients cache the redirect like a local image
+            return ResponseEntity.status(HttpStatus.FOUND)
+                .location(URI.create(getAvatarUrl(avatarConfig, hash, gravatarSize)))
+                .header(HttpHeaders.CACHE_CONTROL, imageCacheControl)
+                .build();
+        }
 
-        ResponseEntity<Resource> gravatarResponse = restTemplate.exchange(getAvatarUrl(email), HttpMethod.GET, null,
-                Resource.class);
+        GravatarImage image = gravatarImageCache.get(getAvatarUrl(avatarConfig, hash, gravatarSize), hash, gravatarSize);
 
-        if (!gravatarResponse.getStatusCode().is2xxSuccessful()) {
-            return new ResponseEntity<>(gravatarResponse.getStatusCode());
+        if (!image.isFound()) {
+            return new ResponseEntity<>(image.getStatus());
         }
 
-        if (gravatarResponse.getBody() == null) {
-            throw new RestClientException("Gravatar resource has returned null");
+        // clients may keep the image as long as the cached copy is fresh, and revalidate it locally afterwards
+        CacheControl cacheControl = CacheControl.maxAge(image.getRemainingFreshnessSeconds(), TimeUnit.SECONDS);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, (httpCacheProperties.isCachePrivate()
+            ? cacheControl.cachePrivate() : cacheControl.cachePublic()).getHeaderValue());
+        if (webRequest.checkNotModified(image.getEtag(), image.getLastModified())) {
+            return null;
         }
 
-        response.setContentType(String.valueOf(gravatarResponse.getHeaders().getContentType()));
-        try (InputStream in = gravatarResponse.getBody().getInputStream()) {
-            IOUtils.copy(in, response.getOutputStream());
-        }
+        response.setContentType(image.getContentType());
+        response.setContentLength(image.getData().length);
+        response.getOutputStream().write(image.getData());
 
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
-    private String getAvatarUrl(String email) {
-
-        AvatarPluginConfig avatarConfig = configManager.getAvatarPluginConfig();
+    private static String getAvatarUrl(AvatarPluginConfig avatarConfig, String hash, int size) {
 
         String url = avatarConfig.getGravatarUrl();
 
@@ -138,31 +357,140 @@ public class AvatarResource {
             url += "/";
         }
 
-        url += DigestUtils.md5DigestAsHex(email.getBytes()) + "?d=404&s=" + avatarConfig.getImageWidth();
-
-        return url;
+        return url + hash + "?d=404&s=" + size;
     }
 
-    private ResponseEntity<?> returnLocalImage(String username, HttpServletResponse response) throws IOException {
+    private ResponseEntity<?> returnLocalImage(String username, Integer size, boolean generateMissing,
+            ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+
+        // the images served for a given rounded size are the same, whatever the size requested
+        Integer renditionSize = avatarService.roundSize(size);
+        Optional<CachedImage> cachedImage = imageCache.get(username, renditionSize);
+
+        if (cachedImage.isPresent()) {
+            return writeImage(cachedImage.get(), imageCacheControl, webRequest, response);
+        }
 
         Optional<Avatar> maybeAvatar = avatarService.findByUsername(username);
 
         if (!maybeAvatar.isPresent()) {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            // not cached as immutable under this URL, which serves the image once uploaded
+            return generateMissing
+                ? writeImage(generateImage(DefaultAvatarGenerator.seedOf(username), size, webRequest, response),
+                    imageCacheControl, webRequest, response)
+                : new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
         Avatar avatar = maybeAvatar.get();
+        int rendition = avatarService.resolveRendition(avatar, renditionSize);
+        String contentHash = renditionHash(avatar.getContentHash(), rendition);
+        long lastModified = avatar.getLastModified() == null ? -1 : avatar.getLastModified().toEpochMilli();
+
+        // answered from the metadata alone, the image bytes are only loaded when they are sent
+        response.setHeader(HttpHeaders.CACHE_CONTROL, imageCacheControl);
+        if (webRequest.checkNotModified(getETag(contentHash), lastModified)) {
+            return null;
+        }
+
+        if (avatarService.isImageStreamed(avatar)) {
+            return streamImage(avatar, rendition, response);
+        }
+
+        Optional<byte[]> maybeImage = avatarService.findImageData(avatar, rendition);
+
+        if (!maybeImage.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        CachedImage image = new CachedImage(maybeImage.get(), avatar.getImageContentType(), contentHash, lastModified);
+        imageCache.put(username, renditionSize, image);
+
+        return writeImage(image, imageCacheControl, webRequest, response);
+    }
+
+    /**
+     * Generated avatars have the configured dimensions, or the requested width and the configured ratio.
+     * They are in SVG for the clients accepting it, so the response varies by {@code Accept}.
+     */
+    private CachedImage generateImage(String seed, Integer size, ServletWebRequest webRequest,
+            HttpServletResponse response) {
+        String format = DefaultAvatarGenerator.FORMAT_PNG;
+        if (defaultImageSvg) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+            if (acceptsSvg(webRequest.getHeader(HttpHeaders.ACCEPT))) {
+                format = DefaultAvatarGenerator.FORMAT_SVG;
+            }
+        }
+
+        AvatarPluginConfig avatarConfig = configManager.getAvatarPluginConfig();
+        if (size == null) {
+            return defaultAvatarGenerator.generate(seed, avatarConfig.getImageWidth(), avatarConfig.getImageHeight(),
+                format);
+        }
+        long height = (long) size * avatarConfig.getImageHeight() / Math.max(1, avatarConfig.getImageWidth());
+        return defaultAvatarGenerator.generate(seed, size, (int) Math.max(1, Math.min(height, Integer.MAX_VALUE)),
+            format);
+    }
 
+    /**
+     * Only an explicit {@code image/svg+xml} selects SVG: wildcards are sent by clients which may not render it.
+     */
+    private static boolean acceptsSvg(String accept) {
+        if (accept == null || !accept.contains(DefaultAvatarGenerator.SVG_CONTENT_TYPE)) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(type -> type.equalsTypeAndSubtype(SVG) && type.getQualityValue() > 0);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends the image straight from its storage to the response, bypassing the in-memory cache.
+     */
+    private ResponseEntity<?> streamImage(Avatar avatar, int rendition, HttpServletResponse response)
+            throws IOException {
         response.setContentType(avatar.getImageContentType());
-        try (ByteArrayInputStream in = new ByteArrayInputStream(avatar.getImage())) {
-            IOUtils.copy(in, response.getOutputStream());
+        if (rendition == AvatarStorage.ORIGINAL && avatar.getImageSize() != null) {
+            response.setContentLengthLong(avatar.getImageSize());
+        }
+        if (!avatarService.transferImage(avatar, rendition, Channels.newChannel(response.getOutputStream()))) {
+            response.reset();
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    private ResponseEntity<?> writeImage(CachedImage image, String cacheControl, ServletWebRequest webRequest,
+            HttpServletResponse response) throws IOException {
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (webRequest.checkNotModified(getETag(image.getContentHash()), image.getLastModified())) {
+            return null;
+        }
+
+        response.setContentType(image.getContentType());
+        response.setContentLength(image.getData().length);
+        response.getOutputStream().write(image.getData());
 
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
+    /**
+     * Renditions are derived from the image, so their validator is derived from its hash.
+     */
+    private static String renditionHash(String contentHash, int rendition) {
+        return contentHash == null || rendition == AvatarStorage.ORIGINAL ? contentHash : contentHash + "-" + rendition;
+    }
+
+    private static String getETag(String contentHash) {
+        return contentHash == null ? null : "\"" + contentHash + "\"";
+    }
+
     @DeleteMapping("/avatars/image/{username}")
-    public ResponseEntity<Void> deleteAvatar(@PathVariable("username") String username) {
+    public ResponseEntity<Void> deleteAvatar(@PathVariable("username") String username) throws IOException {
         avatarService.deleteByUsername(username);
         return new ResponseEntity<>(HttpStatus.NO_CONTENT);
     }
@@ -246,7 +574,7 @@ public class AvatarResource {
      * @return the {@link ResponseEntity} with status {@code 204 (NO_CONTENT)}.
      */
     @DeleteMapping("/avatars/{id}")
-    public ResponseEntity<Void> deleteAvatar(@PathVariable Long id) {
+    public ResponseEntity<Void> deleteAvatar(@PathVariable Long id) throws IOException {
         log.debug("REST request to delete Avatar : {}", id);
         avatarService.delete(id);
         return ResponseEntity.noContent()
@@ -0,0 +1,59 @@
+package org.entando.plugin.avatar.web.rest.vm;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Positive;
+import java.util.List;
+
+/**
+ * View Model of a batch avatar request.
+ */
+public class AvatarBatchRequestVM {
+
+    @NotEmpty
+    private List<@NotBlank String> usernames;
+
+    @Positive
+    private Integer size;
+
+    private boolean inline;
+
+    public List<String> getUsernames() {
+        return usernames;
+    }
+
+    public void setUsernames(List<String> usernames) {
+        this.usernames = usernames;
+    }
+
+    /**
+     * Requested width, as the {@code size} parameter of the single image endpoint.
+     */
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
+    /**
+     * Whether small images should be returned within the response rather than as URLs.
+     */
+    public boolean isInline() {
+        return inline;
+    }
+
+    public void setInline(boolean inline) {
+        this.inline = inline;
+    }
+
+    @Override
+    public String toString() {
+        return "AvatarBatchRequestVM{" +
+            "usernames=" + usernames +
+            ", size=" + size +
+            ", inline=" + inline +
+            "}";
+    }
+}
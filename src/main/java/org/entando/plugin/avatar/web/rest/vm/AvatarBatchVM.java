@@ -0,0 +1,77 @@
+package org.entando.plugin.avatar.web.rest.vm;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * View Model of a batch avatar response: the avatars found, by username, and the usernames without avatar.
+ */
+public class AvatarBatchVM {
+
+    private final Map<String, Item> avatars = new LinkedHashMap<>();
+
+    private final List<String> missing = new ArrayList<>();
+
+    public Map<String, Item> getAvatars() {
+        return avatars;
+    }
+
+    public List<String> getMissing() {
+        return missing;
+    }
+
+    /**
+     * An avatar image, either inlined as base64 {@code data} or to be fetched from {@code url}.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Item {
+
+        private String contentType;
+
+        private String etag;
+
+        private byte[] data;
+
+        private String url;
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Item contentType(String contentType) {
+            this.contentType = contentType;
+            return this;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public Item etag(String etag) {
+            this.etag = etag;
+            return this;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public Item data(byte[] data) {
+            this.data = data;
+            return this;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Item url(String url) {
+            this.url = url;
+            return this;
+        }
+    }
+}
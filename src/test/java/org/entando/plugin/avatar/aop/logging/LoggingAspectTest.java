@@ -0,0 +1,93 @@
+package org.entando.plugin.avatar.aop.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the sampled profiling of the {@link LoggingAspect}.
+ */
+public class LoggingAspectTest {
+
+    private final Logger profilingLogger = (Logger) LoggerFactory.getLogger(LoggingAspect.PROFILING_LOGGER);
+
+    private Level level;
+
+    private MeterRegistry meterRegistry;
+
+    private ProceedingJoinPoint joinPoint;
+
+    @BeforeEach
+    public void setup() throws Throwable {
+        level = profilingLogger.getLevel();
+        meterRegistry = new SimpleMeterRegistry();
+
+        Signature signature = mock(Signature.class);
+        when(signature.getDeclaringType()).thenReturn(LoggingAspectTest.class);
+        when(signature.getDeclaringTypeName()).thenReturn(LoggingAspectTest.class.getName());
+        when(signature.getName()).thenReturn("upload");
+        joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getArgs()).thenReturn(new Object[] {"user", new byte[1024]});
+        when(joinPoint.proceed()).thenReturn("result");
+    }
+
+    @AfterEach
+    public void restoreLevel() {
+        profilingLogger.setLevel(level);
+    }
+
+    @Test
+    public void profilesSampledCalls() throws Throwable {
+        profilingLogger.setLevel(Level.TRACE);
+
+        assertThat(createAspect(1).logAround(joinPoint)).isEqualTo("result");
+        assertThat(meterRegistry.get("avatar.method").tags("class", "LoggingAspectTest", "method", "upload",
+            "outcome", "success").timer().count()).isEqualTo(1);
+
+        // the other calls are not timed
+        assertThat(createAspect(0).logAround(joinPoint)).isEqualTo("result");
+        assertThat(meterRegistry.get("avatar.method").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void doesNotProfileWhenLoggerDisabled() throws Throwable {
+        profilingLogger.setLevel(Level.INFO);
+
+        assertThat(createAspect(1).logAround(joinPoint)).isEqualTo("result");
+        assertThat(meterRegistry.find("avatar.method").timer()).isNull();
+    }
+
+    @Test
+    public void summarizesArgumentsBySize() {
+        assertThat(LoggingAspect.summarize(new Object[] {
+            "user", new byte[1024], Arrays.asList(1, 2, 3), Optional.empty(), null,
+            new MockMultipartFile("data", new byte[2048]), new ApplicationProperties()
+        })).isEqualTo("[String(4), byte[1024], ArrayList(3), Optional(empty), null, "
+            + "MultipartFile(2048 bytes), ApplicationProperties]");
+        assertThat(LoggingAspect.summarize(Optional.of(new int[4]))).isEqualTo("Optional(int[4])");
+    }
+
+    private LoggingAspect createAspect(double sampleRate) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getProfiling().setSampleRate(sampleRate);
+        return new LoggingAspect(new MockEnvironment(), meterRegistry, applicationProperties);
+    }
+}
@@ -0,0 +1,93 @@
+package org.entando.plugin.avatar.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.hibernate5.Hibernate5Module;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import org.entando.plugin.avatar.domain.Avatar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing {@link Avatar} entities to JSON, alone and as listed by {@code GET /api/avatars},
+ * with an {@link ObjectMapper} having the modules of the {@code JacksonConfiguration}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvatarJsonBenchmark {
+
+    private static final int LIST_SIZE = 20;
+
+    private ObjectMapper objectMapper;
+
+    private Avatar avatar;
+
+    private List<Avatar> avatars;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+            .modules(new JavaTimeModule(), new Jdk8Module(), new Hibernate5Module(), new AfterburnerModule())
+            .build();
+
+        avatar = createAvatar(1);
+        avatars = new ArrayList<>();
+        for (int i = 0; i < LIST_SIZE; i++) {
+            avatars.add(createAvatar(i));
+        }
+    }
+
+    private static Avatar createAvatar(long id) {
+        Avatar avatar = new Avatar()
+            .username("user-" + id)
+            .imageContentType("image/png")
+            .imageSize(4096L);
+        avatar.setId(id);
+        avatar.setImageWidth(56);
+        avatar.setImageHeight(56);
+        avatar.setContentHash("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        avatar.setLastModified(Instant.parse("2019-10-01T12:00:00Z"));
+        avatar.setStorage("database");
+        avatar.setRenditionSizes("112,168");
+        return avatar;
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(avatar);
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(avatars);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(AvatarJsonBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,91 @@
+package org.entando.plugin.avatar.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.service.AvatarImageCache.CachedImage;
+import org.entando.plugin.avatar.service.impl.DefaultAvatarGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link DefaultAvatarGenerator}, rendering new seeds and serving already generated ones,
+ * in each format.
+ * <p>
+ * Run through {@link #main(String[])} on the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DefaultAvatarGeneratorBenchmark {
+
+    private static final int SEEDS = 1024;
+
+    @Param({"56", "256"})
+    private int size;
+
+    @Param({DefaultAvatarGenerator.FORMAT_PNG, DefaultAvatarGenerator.FORMAT_SVG})
+    private String format;
+
+    private String[] seeds;
+
+    private DefaultAvatarGenerator cachedGenerator;
+
+    private DefaultAvatarGenerator uncachedGenerator;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        seeds = new String[SEEDS];
+        for (int i = 0; i < SEEDS; i++) {
+            seeds[i] = DefaultAvatarGenerator.seedOf("user-" + i);
+        }
+
+        cachedGenerator = new DefaultAvatarGenerator(new ApplicationProperties(), new SimpleMeterRegistry());
+        for (String seed : seeds) {
+            cachedGenerator.generate(seed, size, size, format);
+        }
+
+        ApplicationProperties uncached = new ApplicationProperties();
+        uncached.getDefaultAvatar().setCacheMaxBytes(0);
+        uncachedGenerator = new DefaultAvatarGenerator(uncached, new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public CachedImage render() {
+        return uncachedGenerator.generate(nextSeed(), size, size, format);
+    }
+
+    @Benchmark
+    public CachedImage cached() {
+        return cachedGenerator.generate(nextSeed(), size, size, format);
+    }
+
+    private String nextSeed() {
+        next = (next + 1) % SEEDS;
+        return seeds[next];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(DefaultAvatarGeneratorBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,64 @@
+package org.entando.plugin.avatar.benchmark;
+
+import org.entando.plugin.avatar.config.AvatarPluginConfig;
+import org.entando.plugin.avatar.service.GravatarHashCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the Gravatar URL of a user whose hash is not cached yet: the MD5 of the email,
+ * then the URL itself, built the same way as in {@code AvatarResource.getAvatarUrl}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GravatarUrlBenchmark {
+
+    private static final int SIZE = 56;
+
+    private String email;
+
+    private String gravatarUrl;
+
+    @Setup
+    public void setup() {
+        email = " Firstname.Lastname@Example.com ";
+        gravatarUrl = AvatarPluginConfig.getDefault().getGravatarUrl();
+    }
+
+    @Benchmark
+    public String hash() {
+        return GravatarHashCache.hashOf(email);
+    }
+
+    @Benchmark
+    public String avatarUrl() {
+        String url = gravatarUrl;
+        if (!url.endsWith("/")) {
+            url += "/";
+        }
+        return url + GravatarHashCache.hashOf(email) + "?d=404&s=" + SIZE;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(GravatarUrlBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,125 @@
+package org.entando.plugin.avatar.benchmark;
+
+import org.entando.plugin.avatar.service.impl.AvatarRenditionGenerator;
+import org.entando.plugin.avatar.service.util.ImageFormat;
+import org.entando.plugin.avatar.service.util.ImageMetadataStripper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Cost of the image processing stages of an upload, at typical avatar sizes: reading the dimensions
+ * from the header, stripping the metadata of an image kept as is, and decoding then re-encoding it.
+ * <p>
+ * Images are read the way {@code AvatarServiceImpl} reads them, and encoded by the {@link AvatarRenditionGenerator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageCodecBenchmark {
+
+    @Param({"PNG", "JPEG"})
+    private ImageFormat format;
+
+    @Param({"56", "256", "1024"})
+    private int size;
+
+    private byte[] data;
+
+    private BufferedImage image;
+
+    @Setup
+    public void setup() throws IOException {
+        image = createImage(size);
+        data = AvatarRenditionGenerator.encode(image, format.getFormatName());
+    }
+
+    /**
+     * A gradient with some noise, which compresses about like a photo, unlike a flat image.
+     */
+    private static BufferedImage createImage(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int red = x * 255 / size;
+                int green = y * 255 / size;
+                int blue = random.nextInt(64);
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    @Benchmark
+    public Dimension readDimension() throws IOException {
+        ImageReader reader = getImageReader();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            reader.setInput(in, true, true);
+            return new Dimension(reader.getWidth(0), reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Benchmark
+    public byte[] stripMetadata() {
+        return ImageMetadataStripper.strip(data, format);
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        ImageReader reader = getImageReader();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            reader.setInput(in, true, true);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return AvatarRenditionGenerator.encode(image, format.getFormatName());
+    }
+
+    @Benchmark
+    public byte[] decodeEncode() throws IOException {
+        return AvatarRenditionGenerator.encode(decode(), format.getFormatName());
+    }
+
+    private ImageReader getImageReader() {
+        return ImageIO.getImageReadersByFormatName(format.getFormatName()).next();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ImageCodecBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
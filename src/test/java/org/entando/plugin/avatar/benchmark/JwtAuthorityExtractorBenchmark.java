@@ -0,0 +1,119 @@
+package org.entando.plugin.avatar.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.config.EntandoProperties;
+import org.entando.plugin.avatar.security.oauth2.JwtAuthorityExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Cost of converting an access token to an authentication, as done for each authenticated request,
+ * and of its authorities alone, with and without the authorities cache, the same token being sent
+ * again and again by a page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtAuthorityExtractorBenchmark {
+
+    private static final String CLIENT_ID = "avatar-plugin";
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    @Param({"2", "20"})
+    public int roles;
+
+    private Extractor extractor;
+
+    private Jwt jwt;
+
+    @Setup
+    public void setup() {
+        EntandoProperties entandoProperties = new EntandoProperties();
+        entandoProperties.setClientId(CLIENT_ID);
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        if (!cached) {
+            applicationProperties.getAuthorityCache().setMaxSize(0);
+        }
+        extractor = new Extractor(entandoProperties, applicationProperties);
+
+        Instant now = Instant.now();
+        Map<String, Object> resourceAccess = new HashMap<>();
+        resourceAccess.put(CLIENT_ID, Collections.singletonMap("roles",
+            IntStream.range(0, roles).mapToObj(i -> "role-" + i).collect(Collectors.toList())));
+        resourceAccess.put("account", Collections.singletonMap("roles",
+            Arrays.asList("manage-account", "manage-account-links", "view-profile")));
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("iss", "https://auth.example.com/auth/realms/entando");
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("sub", "f1c2a3d4-5e6f-4a5b-8c7d-9e0f1a2b3c4d");
+        claims.put("preferred_username", "user");
+        claims.put("resource_access", resourceAccess);
+        claims.put("realm_access", Collections.singletonMap("roles", Arrays.asList("offline_access", "uma_authorization")));
+        jwt = new Jwt("header.payload.signature", now, now.plus(1, ChronoUnit.HOURS),
+            Collections.singletonMap("alg", "RS256"), claims);
+    }
+
+    @Benchmark
+    public Collection<GrantedAuthority> authorities() {
+        return extractor.extractAuthorities(jwt);
+    }
+
+    @Benchmark
+    public AbstractAuthenticationToken convert() {
+        return extractor.convert(jwt);
+    }
+
+    /**
+     * Exposes the authorities alone, without the authentication built from them.
+     */
+    private static class Extractor extends JwtAuthorityExtractor {
+
+        Extractor(EntandoProperties entandoProperties, ApplicationProperties applicationProperties) {
+            super(entandoProperties, applicationProperties, new SimpleMeterRegistry());
+        }
+
+        @Override
+        protected Collection<GrantedAuthority> extractAuthorities(Jwt jwt) {
+            return super.extractAuthorities(jwt);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(JwtAuthorityExtractorBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
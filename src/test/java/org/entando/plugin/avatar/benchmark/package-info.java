@@ -0,0 +1,10 @@
+/**
+ * JMH benchmarks of the upload and serving pipelines, not run with the tests.
+ * <p>
+ * Run them all with {@code ./mvnw -Pbenchmark test}, or a subset with
+ * {@code ./mvnw -Pbenchmark test -Djmh.include=<regular expression>}, JMH options such as
+ * {@code -p param=value} or {@code -wi 1 -i 1} being passed with {@code -Djmh.options}.
+ * Results are written as JSON to {@code target/jmh-result.json}, to be archived and compared
+ * across builds. Each benchmark can also be run from the IDE through its {@code main} method.
+ */
+package org.entando.plugin.avatar.benchmark;
@@ -0,0 +1,192 @@
+package org.entando.plugin.avatar.client;
+
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandMetrics;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.config.EntandoProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the {@link EntandoAuthClient}, against an in-process token endpoint and user management API.
+ */
+public class EntandoAuthClientTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+
+    private final AtomicInteger userRequests = new AtomicInteger();
+
+    private final CountDownLatch hungTokenRelease = new CountDownLatch(1);
+
+    private HttpServer server;
+
+    private EntandoAuthClient authClient;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/token", exchange -> {
+            int token = tokenRequests.incrementAndGet();
+            respond(exchange, 200, "{\"access_token\":\"token-" + token + "\",\"token_type\":\"bearer\",\"expires_in\":300}");
+        });
+        server.createContext("/hung-token", exchange -> {
+            try {
+                hungTokenRelease.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.createContext("/users/", exchange -> {
+            userRequests.incrementAndGet();
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (exchange.getRequestURI().getPath().endsWith("unknown")) {
+                respond(exchange, 404, "{}");
+            } else if ("Bearer token-1".equals(authorization)) {
+                // the first token is rejected by the lookup of "revoked"
+                respond(exchange, tokenRequests.get() == 1 && exchange.getRequestURI().getPath().endsWith("revoked")
+                    ? 401 : 200, "{\"username\":\"user\",\"email\":\"user@example.com\"}");
+            } else {
+                respond(exchange, 200, "{\"username\":\"user\",\"email\":\"user@example.com\"}");
+            }
+        });
+        server.start();
+
+        String baseUri = "http://localhost:" + server.getAddress().getPort();
+        EntandoProperties entandoProperties = new EntandoProperties();
+        entandoProperties.setClientId("client");
+        entandoProperties.setClientSecret("secret");
+        entandoProperties.setAccessTokenUri(baseUri + "/token");
+        entandoProperties.setAuthServiceUri(baseUri);
+        authClient = new EntandoAuthClient(entandoProperties, new ApplicationProperties(), Runnable::run, meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        hungTokenRelease.countDown();
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    @Test
+    public void testTokenIsReused() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(authClient.findUserDetail("user-" + i).map(EntandoAuthClient.User::getEmail))
+                .contains("user@example.com");
+        }
+        assertThat(tokenRequests.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("avatar.auth.token.fetch").tag("outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("avatar.auth.user.detail").tag("outcome", "success").timer().count()).isEqualTo(3);
+    }
+
+    @Test
+    public void testHungTokenEndpointTimesOut() {
+        EntandoAuthClient hungClient = createHungTokenClient();
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> hungClient.findUserDetail("user")).isInstanceOf(RuntimeException.class);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000);
+        assertThat(userRequests.get()).isEqualTo(0);
+        assertThat(meterRegistry.get("avatar.auth.token.fetch").tag("outcome", "failure").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHungTokenEndpointFailsCommand() throws Exception {
+        EntandoAuthClient hungClient = createHungTokenClient();
+
+        ExecutorService lookups = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String userId = "user-" + i;
+                results.add(lookups.submit(() -> hungClient.findUserDetail(userId)));
+            }
+            for (Future<?> result : results) {
+                // failed by the token fetch timeout, counting towards the circuit, rather than rejected
+                assertThatThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(HystrixRuntimeException.class)
+                    .satisfies(e -> assertThat(((HystrixRuntimeException) e.getCause()).getFailureType())
+                        .isEqualTo(HystrixRuntimeException.FailureType.COMMAND_EXCEPTION));
+            }
+        } finally {
+            lookups.shutdownNow();
+        }
+        // no semaphore permit left held
+        assertThat(HystrixCommandMetrics.getInstance(HystrixCommandKey.Factory.asKey("auth-user-detail"))
+            .getCurrentConcurrentExecutionCount()).isEqualTo(0);
+    }
+
+    private EntandoAuthClient createHungTokenClient() {
+        String baseUri = "http://localhost:" + server.getAddress().getPort();
+        EntandoProperties entandoProperties = new EntandoProperties();
+        entandoProperties.setClientId("client");
+        entandoProperties.setClientSecret("secret");
+        entandoProperties.setAccessTokenUri(baseUri + "/hung-token");
+        entandoProperties.setAuthServiceUri(baseUri);
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getAuthService().setReadTimeoutMs(500);
+        return new EntandoAuthClient(entandoProperties, applicationProperties, Runnable::run, meterRegistry);
+    }
+
+    @Test
+    public void testRejectedTokenIsRenewed() {
+        assertThat(authClient.findUserDetail("revoked")).isPresent();
+        assertThat(tokenRequests.get()).isEqualTo(2);
+        assertThat(authClient.findUserDetail("user")).isPresent();
+        assertThat(tokenRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testUsersAreCached() {
+        assertThat(authClient.findUserDetail("user")).isPresent();
+        assertThat(authClient.findUserDetail("unknown")).isEmpty();
+        assertThat(authClient.findUserDetail("user")).isPresent();
+        assertThat(authClient.findUserDetail("unknown")).isEmpty();
+        assertThat(userRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBulkResolve() {
+        assertThat(authClient.findUserDetail("user-1")).isPresent();
+
+        Map<String, EntandoAuthClient.User> users = authClient.findUserDetails(
+            Arrays.asList("user-1", "user-2", "user-3", "unknown"));
+
+        assertThat(users).containsOnlyKeys("user-1", "user-2", "user-3");
+        assertThat(userRequests.get()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,81 @@
+package org.entando.plugin.avatar.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.config.ConfigService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the snapshot refreshes of the {@link AvatarPluginConfigManager}.
+ */
+public class AvatarPluginConfigManagerTest {
+
+    private ConfigService<AvatarPluginConfig> configService;
+
+    private AvatarPluginConfigManager configManager;
+
+    private ExecutorService refreshes;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        configService = mock(ConfigService.class);
+        configManager = new AvatarPluginConfigManager(configService, new ApplicationProperties(), Runnable::run,
+            new SimpleMeterRegistry());
+        refreshes = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        refreshes.shutdownNow();
+    }
+
+    @Test
+    public void refreshReplacesSnapshot() {
+        AvatarPluginConfig fetched = config(48);
+        when(configService.getConfig()).thenReturn(config(56), fetched);
+
+        assertThat(configManager.getAvatarPluginConfig().getImageWidth()).isEqualTo(56);
+        configManager.refresh();
+        assertThat(configManager.getAvatarPluginConfig()).isSameAs(fetched);
+    }
+
+    @Test
+    public void updateDuringRefreshIsKept() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch updated = new CountDownLatch(1);
+        // the refresh reads the config service before the update, and completes after it
+        when(configService.getConfig()).thenReturn(config(56)).thenAnswer(invocation -> {
+            fetching.countDown();
+            updated.await(5, TimeUnit.SECONDS);
+            return config(56);
+        });
+        configManager.getAvatarPluginConfig();
+
+        Future<?> refresh = refreshes.submit(configManager::refresh);
+        assertThat(fetching.await(5, TimeUnit.SECONDS)).isTrue();
+        AvatarPluginConfig update = config(64);
+        configManager.update(update);
+        updated.countDown();
+        refresh.get(5, TimeUnit.SECONDS);
+
+        assertThat(configManager.getAvatarPluginConfig()).isSameAs(update);
+    }
+
+    private static AvatarPluginConfig config(int imageWidth) {
+        AvatarPluginConfig config = AvatarPluginConfig.getDefault();
+        config.setImageWidth(imageWidth);
+        return config;
+    }
+}
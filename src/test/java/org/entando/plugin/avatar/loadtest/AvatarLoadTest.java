@@ -0,0 +1,433 @@
+package org.entando.plugin.avatar.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.entando.plugin.avatar.AvatarPluginApp;
+import org.entando.plugin.avatar.config.AvatarPluginConfig;
+import org.entando.plugin.avatar.domain.AvatarStyle;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Load test of the plugin, started in-process on H2 with its remote dependencies stubbed by
+ * {@link LoadTestStubs} and {@link LoadTestConfiguration}.
+ * <p>
+ * Avatars are uploaded for half of the users, then each avatar style of {@code loadtest.styles} is
+ * loaded in turn by {@code loadtest.users} concurrent clients with a mix of image requests, batch
+ * listings and uploads. Throughput and latency percentiles are reported per style and operation,
+ * on the console and as JSON. See the {@code loadtest} package for the options.
+ */
+public final class AvatarLoadTest {
+
+    private static final int POPULATION = Integer.getInteger("loadtest.population", 1000);
+    private static final int USERS = Integer.getInteger("loadtest.users", 32);
+    private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmup-seconds", 10);
+    private static final int DURATION_SECONDS = Integer.getInteger("loadtest.duration-seconds", 60);
+    private static final List<AvatarStyle> STYLES = Arrays.stream(
+        System.getProperty("loadtest.styles", "LOCAL,GRAVATAR").split(","))
+        .map(String::trim).map(AvatarStyle::valueOf).collect(Collectors.toList());
+    private static final int BATCH_SIZE = Integer.getInteger("loadtest.batch-size", 20);
+    private static final String RESULT = System.getProperty("loadtest.result", "target/loadtest-result.json");
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+        .enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * The operations of the mix, weighted by {@code loadtest.mix}, in this order.
+     */
+    private enum Operation {
+        IMAGE, BATCH, UPLOAD
+    }
+
+    private final List<String> usernames;
+    private final LoadTestStubs stubs;
+    private final CloseableHttpClient httpClient;
+    private final String baseUri;
+    private final String[] userTokens;
+    private final String adminToken;
+    private final byte[][] uploads;
+    private final int[] mix;
+
+    private AvatarLoadTest(List<String> usernames, LoadTestStubs stubs, int port) throws IOException {
+        this.usernames = usernames;
+        this.stubs = stubs;
+        this.baseUri = "http://localhost:" + port;
+        this.httpClient = HttpClients.custom()
+            .setMaxConnTotal(USERS * 2)
+            .setMaxConnPerRoute(USERS * 2)
+            .disableRedirectHandling()
+            .disableAutomaticRetries()
+            .build();
+
+        // signed once, so that the run measures their validation only
+        this.userTokens = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userTokens[i] = stubs.signAccessToken(usernames.get(i % usernames.size()));
+        }
+        this.adminToken = stubs.signAccessToken("admin", "config-update");
+
+        this.uploads = new byte[8][];
+        Random random = new Random(42);
+        for (int i = 0; i < uploads.length; i++) {
+            uploads[i] = createPng(random);
+        }
+        this.mix = Arrays.stream(System.getProperty("loadtest.mix", "80,10,10").split(","))
+            .map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> usernames = IntStream.range(0, POPULATION)
+            .mapToObj(i -> String.format("user-%05d", i)).collect(Collectors.toList());
+
+        try (LoadTestStubs stubs = new LoadTestStubs(usernames)) {
+            applicationProperties(stubs).forEach(System.getProperties()::putIfAbsent);
+            ConfigurableApplicationContext app = new SpringApplicationBuilder(AvatarPluginApp.class,
+                    LoadTestConfiguration.class)
+                .initializers(context -> context.getBeanFactory()
+                    .registerSingleton("loadTestTypeExcludeFilter", new TestConfigurationExcludeFilter()))
+                .run(args);
+            try {
+                int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+                new AvatarLoadTest(usernames, stubs, port).run();
+            } finally {
+                app.close();
+            }
+        }
+        // the stubs and the application may leave non daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Properties pointing the application to the stubs, set as system properties to override the
+     * test configuration, unless already set.
+     */
+    private static Map<String, String> applicationProperties(LoadTestStubs stubs) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.security.oauth2.client.provider.oidc.issuer-uri", stubs.getIssuerUri());
+        properties.put("spring.security.oauth2.client.registration.oidc.client-id", LoadTestStubs.CLIENT_ID);
+        properties.put("spring.security.oauth2.client.registration.oidc.client-secret", "secret");
+        properties.put("entando.client-id", LoadTestStubs.CLIENT_ID);
+        properties.put("entando.client-secret", "secret");
+        properties.put("entando.access-token-uri", stubs.getTokenUri());
+        properties.put("entando.auth-service-uri", stubs.getUsersUri());
+        // images go through the plugin, so that the Gravatar stub is part of the load
+        properties.put("application.gravatar.mode", "PROXY");
+        return properties;
+    }
+
+    private void run() throws Exception {
+        System.out.printf("Load test: %d clients, %d users, %ds warmup and %ds per style, mix %s%n",
+            USERS, POPULATION, WARMUP_SECONDS, DURATION_SECONDS, Arrays.toString(mix));
+        System.out.printf("Stubs: token %s, users %s, gravatar %s, config %s%n", LoadTestStubs.Fault.of("token"),
+            LoadTestStubs.Fault.of("users"), LoadTestStubs.Fault.of("gravatar"), LoadTestStubs.Fault.of("config"));
+
+        seed();
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (AvatarStyle style : STYLES) {
+            configure(style);
+            Map<Operation, Stats> stats = runPhase();
+            report(style, stats);
+            stats.forEach((operation, operationStats) -> results.add(operationStats.toResult(style, operation)));
+        }
+
+        File result = new File(RESULT);
+        if (result.getParentFile() != null) {
+            result.getParentFile().mkdirs();
+        }
+        objectMapper.writeValue(result, results);
+        System.out.println("Results written to " + result.getAbsolutePath());
+        httpClient.close();
+    }
+
+    /**
+     * Upload the avatars of half of the users, the others only having a generated or Gravatar image.
+     */
+    private void seed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(USERS);
+        try {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < usernames.size(); i += 2) {
+                String username = usernames.get(i);
+                int client = i % USERS;
+                statuses.add(executor.submit(() -> execute(upload(username, client))));
+            }
+            long failures = 0;
+            for (Future<Integer> status : statuses) {
+                if (status.get() != 200) {
+                    failures++;
+                }
+            }
+            System.out.printf("Seeded %d avatars, %d failures%n", statuses.size() - failures, failures);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void configure(AvatarStyle style) {
+        // retried, as the config stub fails like the others
+        for (int attempt = 0; attempt < 5; attempt++) {
+            try {
+                HttpGet get = new HttpGet(baseUri + "/api/config");
+                get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken);
+                AvatarPluginConfig config;
+                try (CloseableHttpResponse response = httpClient.execute(get)) {
+                    config = objectMapper.readValue(EntityUtils.toByteArray(response.getEntity()),
+                        AvatarPluginConfig.class);
+                }
+                config.setStyle(style);
+                config.setGravatarUrl(stubs.getGravatarUri());
+
+                HttpPut put = new HttpPut(baseUri + "/api/config");
+                put.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + adminToken);
+                put.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(config), ContentType.APPLICATION_JSON));
+                if (execute(put) == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.out.printf("Unable to switch to the %s style: %s%n", style, e.getMessage());
+            }
+        }
+        throw new IllegalStateException("Unable to switch to the " + style + " style");
+    }
+
+    private Map<Operation, Stats> runPhase() throws Exception {
+        Map<Operation, Stats> stats = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(USERS);
+        try {
+            List<Future<?>> clients = new ArrayList<>();
+            for (int i = 0; i < USERS; i++) {
+                int client = i;
+                clients.add(executor.submit(() -> {
+                    long start;
+                    while ((start = System.nanoTime()) < end) {
+                        Operation operation = nextOperation();
+                        boolean success = execute(operation, client);
+                        if (start >= measureStart) {
+                            stats.get(operation).record(System.nanoTime() - start, success);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> client : clients) {
+                client.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return stats;
+    }
+
+    private Operation nextOperation() {
+        int draw = ThreadLocalRandom.current().nextInt(Arrays.stream(mix).sum());
+        for (int i = 0; i < mix.length; i++) {
+            draw -= mix[i];
+            if (draw < 0) {
+                return Operation.values()[i];
+            }
+        }
+        return Operation.IMAGE;
+    }
+
+    private boolean execute(Operation operation, int client) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            switch (operation) {
+                case BATCH:
+                    return execute(batch(client, random)) == 200;
+                case UPLOAD:
+                    return execute(upload(usernames.get(random.nextInt(usernames.size())), client)) == 200;
+                default:
+                    int status = execute(image(usernames.get(random.nextInt(usernames.size())), client));
+                    // users without Gravatar image are not found in the GRAVATAR style
+                    return status == 200 || status == 302 || status == 304 || status == 404;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private HttpUriRequest image(String username, int client) {
+        HttpGet get = new HttpGet(baseUri + "/api/avatars/image/" + username);
+        get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + userTokens[client]);
+        return get;
+    }
+
+    private HttpUriRequest batch(int client, ThreadLocalRandom random) throws IOException {
+        Map<String, Object> request = new HashMap<>();
+        request.put("usernames", random.ints(BATCH_SIZE, 0, usernames.size())
+            .mapToObj(usernames::get).collect(Collectors.toList()));
+        HttpPost post = new HttpPost(baseUri + "/api/avatars/batch");
+        post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + userTokens[client]);
+        post.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(request), ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    private HttpUriRequest upload(String username, int client) {
+        String boundary = "loadtest" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[] image = uploads[ThreadLocalRandom.current().nextInt(uploads.length)];
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 256);
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"data\"; filename=\"avatar.png\"\r\n"
+            + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        body.write(head, 0, head.length);
+        body.write(image, 0, image.length);
+        body.write(tail, 0, tail.length);
+
+        HttpPost post = new HttpPost(baseUri + "/api/avatars/image/" + username);
+        post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + userTokens[client]);
+        post.setEntity(new ByteArrayEntity(body.toByteArray(),
+            ContentType.create("multipart/form-data").withParameters(new BasicNameValuePair("boundary", boundary))));
+        return post;
+    }
+
+    private int execute(HttpUriRequest request) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    /**
+     * An image of the configured dimensions, noisy enough to weigh like a photo.
+     */
+    private static byte[] createPng(Random random) throws IOException {
+        AvatarPluginConfig config = AvatarPluginConfig.getDefault();
+        BufferedImage image = new BufferedImage(config.getImageWidth(), config.getImageHeight(),
+            BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", os);
+            return os.toByteArray();
+        }
+    }
+
+    private static void report(AvatarStyle style, Map<Operation, Stats> stats) {
+        System.out.printf("%n%-9s %-7s %9s %7s %9s %9s %9s %9s%n",
+            "style", "op", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms");
+        stats.forEach((operation, operationStats) -> {
+            Histogram histogram = operationStats.histogram();
+            System.out.printf("%-9s %-7s %9d %7d %9.1f %9.2f %9.2f %9.2f%n", style, operation,
+                histogram.getTotalCount(), operationStats.errors.get(),
+                histogram.getTotalCount() / (double) DURATION_SECONDS,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+        });
+    }
+
+    /**
+     * Latencies in microseconds, and failures, of an operation.
+     */
+    private static final class Stats {
+
+        private final Recorder recorder = new Recorder(3);
+        private final AtomicLong errors = new AtomicLong();
+        private Histogram histogram;
+
+        void record(long nanos, boolean success) {
+            recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            if (!success) {
+                errors.incrementAndGet();
+            }
+        }
+
+        synchronized Histogram histogram() {
+            if (histogram == null) {
+                histogram = recorder.getIntervalHistogram();
+            }
+            return histogram;
+        }
+
+        Map<String, Object> toResult(AvatarStyle style, Operation operation) {
+            Histogram histogram = histogram();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("style", style);
+            result.put("operation", operation);
+            result.put("clients", USERS);
+            result.put("durationSeconds", DURATION_SECONDS);
+            result.put("requests", histogram.getTotalCount());
+            result.put("errors", errors.get());
+            result.put("throughput", histogram.getTotalCount() / (double) DURATION_SECONDS);
+            result.put("p50Ms", histogram.getValueAtPercentile(50) / 1000.0);
+            result.put("p99Ms", histogram.getValueAtPercentile(99) / 1000.0);
+            result.put("maxMs", histogram.getMaxValue() / 1000.0);
+            return result;
+        }
+    }
+
+    /**
+     * Keeps the test configurations of the test classpath, like the mocked security of the
+     * integration tests, out of the component scan, as Spring Boot does when running tests.
+     */
+    private static final class TestConfigurationExcludeFilter extends TypeExcludeFilter {
+
+        @Override
+        public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+            return metadataReader.getAnnotationMetadata().hasAnnotation(TestConfiguration.class.getName());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj != null && obj.getClass() == getClass();
+        }
+
+        @Override
+        public int hashCode() {
+            return getClass().hashCode();
+        }
+    }
+}
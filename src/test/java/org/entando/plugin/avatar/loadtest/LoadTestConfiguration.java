@@ -0,0 +1,51 @@
+package org.entando.plugin.avatar.loadtest;
+
+import org.entando.config.ConfigService;
+import org.entando.plugin.avatar.config.AvatarPluginConfig;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Replaces the connection to the config service for the load test.
+ * <p>
+ * The wire protocol of the config service is private to the config connector, so the stub stands in
+ * for the {@link ConfigService} itself, with the same latency and failures as the HTTP stubs.
+ */
+@TestConfiguration
+public class LoadTestConfiguration {
+
+    @Bean
+    @Primary
+    public ConfigService<AvatarPluginConfig> stubConfigService() {
+        return new StubConfigService(LoadTestStubs.Fault.of("config"));
+    }
+
+    static class StubConfigService extends ConfigService<AvatarPluginConfig> {
+
+        private final LoadTestStubs.Fault fault;
+
+        private volatile AvatarPluginConfig config = AvatarPluginConfig.getDefault();
+
+        StubConfigService(LoadTestStubs.Fault fault) {
+            super(null, null, null, null, AvatarPluginConfig.class);
+            this.fault = fault;
+        }
+
+        @Override
+        public AvatarPluginConfig getConfig() {
+            if (fault.inject()) {
+                throw new IllegalStateException("Config service unavailable");
+            }
+            return config;
+        }
+
+        @Override
+        public void updateConfig(AvatarPluginConfig config) {
+            if (fault.inject()) {
+                throw new IllegalStateException("Config service unavailable");
+            }
+            this.config = config;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.entando.plugin.avatar.loadtest;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.entando.plugin.avatar.service.GravatarHashCache;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * In-process stand-ins for the services the plugin depends on, on a single HTTP server:
+ * <ul>
+ * <li>the Keycloak realm: OpenID discovery, signing keys and client credentials tokens,</li>
+ * <li>the user management API of the auth service,</li>
+ * <li>Gravatar, knowing the users whose index is not a multiple of three.</li>
+ * </ul>
+ * Each stub answers after its configured latency, and fails with a 503 at its configured rate,
+ * see {@link Fault}. The user access tokens are signed with the realm key once, before the run.
+ */
+class LoadTestStubs implements AutoCloseable {
+
+    static final String REALM_PATH = "/auth/realms/loadtest";
+    static final String USERS_PATH = "/user-mgmt";
+    static final String GRAVATAR_PATH = "/avatar/";
+
+    static final String CLIENT_ID = "avatar-plugin";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final RSAKey signingKey;
+    private final byte[] gravatarImage;
+    private final Set<String> gravatarHashes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong tokens = new AtomicLong();
+
+    private final Fault tokenFault = Fault.of("token");
+    private final Fault usersFault = Fault.of("users");
+    private final Fault gravatarFault = Fault.of("gravatar");
+
+    LoadTestStubs(List<String> usernames) throws IOException {
+        this.signingKey = generateKey();
+        this.gravatarImage = createPng(80);
+        for (int i = 0; i < usernames.size(); i++) {
+            if (i % 3 != 0) {
+                gravatarHashes.add(GravatarHashCache.hashOf(email(usernames.get(i))));
+            }
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext(REALM_PATH + "/.well-known/openid-configuration", exchange ->
+            respond(exchange, 200, "application/json", discovery().getBytes(StandardCharsets.UTF_8)));
+        server.createContext(REALM_PATH + "/protocol/openid-connect/certs", exchange ->
+            respond(exchange, 200, "application/json",
+                new JWKSet(signingKey.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8)));
+        server.createContext(REALM_PATH + "/protocol/openid-connect/token", faulty(tokenFault, this::token));
+        server.createContext(USERS_PATH + "/users/", faulty(usersFault, this::user));
+        server.createContext(GRAVATAR_PATH, faulty(gravatarFault, this::gravatar));
+        server.start();
+    }
+
+    private static RSAKey generateKey() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair keyPair = generator.generateKeyPair();
+            return new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                .privateKey((RSAPrivateKey) keyPair.getPrivate())
+                .keyID("loadtest")
+                .build();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] createPng(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", os);
+            return os.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String email(String username) {
+        return username + "@example.com";
+    }
+
+    String getBaseUri() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    String getIssuerUri() {
+        return getBaseUri() + REALM_PATH;
+    }
+
+    String getTokenUri() {
+        return getIssuerUri() + "/protocol/openid-connect/token";
+    }
+
+    String getUsersUri() {
+        return getBaseUri() + USERS_PATH;
+    }
+
+    String getGravatarUri() {
+        return getBaseUri() + GRAVATAR_PATH;
+    }
+
+    /**
+     * An access token of the realm, as sent by the browser of a user, valid for the whole run.
+     *
+     * @param roles the plugin client roles of the user.
+     */
+    String signAccessToken(String username, String... roles) {
+        Date now = new Date();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+            .issuer(getIssuerUri())
+            .subject(username)
+            .audience("account")
+            .issueTime(now)
+            .expirationTime(new Date(now.getTime() + TimeUnit.HOURS.toMillis(12)))
+            .claim("preferred_username", username)
+            .claim("resource_access", Collections.singletonMap(CLIENT_ID,
+                Collections.singletonMap("roles", Arrays.asList(roles))))
+            .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(),
+            claims);
+        try {
+            jwt.sign(new RSASSASigner(signingKey));
+        } catch (JOSEException e) {
+            throw new IllegalStateException(e);
+        }
+        return jwt.serialize();
+    }
+
+    private String discovery() {
+        String issuer = getIssuerUri();
+        return "{\"issuer\":\"" + issuer + "\","
+            + "\"authorization_endpoint\":\"" + issuer + "/protocol/openid-connect/auth\","
+            + "\"token_endpoint\":\"" + getTokenUri() + "\","
+            + "\"userinfo_endpoint\":\"" + issuer + "/protocol/openid-connect/userinfo\","
+            + "\"jwks_uri\":\"" + issuer + "/protocol/openid-connect/certs\","
+            + "\"subject_types_supported\":[\"public\"],"
+            + "\"response_types_supported\":[\"code\"],"
+            + "\"id_token_signing_alg_values_supported\":[\"RS256\"]}";
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        String body = "{\"access_token\":\"client-token-" + tokens.incrementAndGet()
+            + "\",\"token_type\":\"bearer\",\"expires_in\":300}";
+        respond(exchange, 200, "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void user(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String username = path.substring(path.lastIndexOf('/') + 1);
+        String body = "{\"id\":\"" + username + "\",\"username\":\"" + username + "\",\"enabled\":true,"
+            + "\"email\":\"" + email(username) + "\"}";
+        respond(exchange, 200, "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void gravatar(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String hash = path.substring(path.lastIndexOf('/') + 1);
+        if (gravatarHashes.contains(hash)) {
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=300");
+            exchange.getResponseHeaders().set("ETag", "\"" + hash + "\"");
+            respond(exchange, 200, "image/png", gravatarImage);
+        } else {
+            respond(exchange, 404, null, null);
+        }
+    }
+
+    private static HttpHandler faulty(Fault fault, HttpHandler handler) {
+        return exchange -> {
+            try {
+                if (fault.inject()) {
+                    respond(exchange, 503, null, null);
+                } else {
+                    handler.handle(exchange);
+                }
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+        if (body != null) {
+            exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Latency and failure rate of a stub, from the {@code loadtest.<stub>.latency-ms} and
+     * {@code loadtest.<stub>.failure-rate} system properties, defaulting to {@code loadtest.latency-ms}
+     * and {@code loadtest.failure-rate}.
+     */
+    static final class Fault {
+
+        private final long latencyMs;
+        private final double failureRate;
+
+        private Fault(long latencyMs, double failureRate) {
+            this.latencyMs = latencyMs;
+            this.failureRate = failureRate;
+        }
+
+        static Fault of(String stub) {
+            return new Fault(
+                Long.getLong("loadtest." + stub + ".latency-ms", Long.getLong("loadtest.latency-ms", 20)),
+                Double.parseDouble(System.getProperty("loadtest." + stub + ".failure-rate",
+                    System.getProperty("loadtest.failure-rate", "0.01"))));
+        }
+
+        /**
+         * Waits for the latency, with up to 50% of jitter.
+         *
+         * @return whether the call should fail.
+         */
+        boolean inject() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs + random.nextLong(latencyMs / 2 + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return random.nextDouble() < failureRate;
+        }
+
+        @Override
+        public String toString() {
+            return latencyMs + " ms, " + failureRate * 100 + "% failures";
+        }
+    }
+}
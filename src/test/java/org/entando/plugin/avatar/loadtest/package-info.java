@@ -0,0 +1,21 @@
+/**
+ * Load test of the plugin against in-process stubs of Keycloak, the auth service, the config
+ * service and Gravatar, not run with the tests.
+ * <p>
+ * Run it with {@code ./mvnw -Pload-test test}, options being passed as system properties with
+ * {@code -Dloadtest.options="-Dloadtest.users=64 -Dloadtest.gravatar.latency-ms=150"}:
+ * <ul>
+ * <li>{@code loadtest.users}: concurrent clients, 32 by default,</li>
+ * <li>{@code loadtest.population}: distinct users, 1000 by default, half of them with an uploaded avatar,</li>
+ * <li>{@code loadtest.warmup-seconds} and {@code loadtest.duration-seconds}: per style, 10 and 60 by default,</li>
+ * <li>{@code loadtest.styles}: the avatar styles loaded in turn, {@code LOCAL,GRAVATAR} by default,</li>
+ * <li>{@code loadtest.mix}: weights of the image, batch and upload requests, {@code 80,10,10} by default,</li>
+ * <li>{@code loadtest.latency-ms} and {@code loadtest.failure-rate}: behavior of all the stubs,
+ * 20 ms and 0.01 by default, or of one of them with {@code loadtest.<stub>.latency-ms} and
+ * {@code loadtest.<stub>.failure-rate}, the stubs being {@code token}, {@code users}, {@code config}
+ * and {@code gravatar},</li>
+ * <li>{@code loadtest.result}: the JSON report, {@code target/loadtest-result.json} by default.</li>
+ * </ul>
+ * Application properties can be set the same way, for example {@code -Dapplication.gravatar.mode=REDIRECT}.
+ */
+package org.entando.plugin.avatar.loadtest;
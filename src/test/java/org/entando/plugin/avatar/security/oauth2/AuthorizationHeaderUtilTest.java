@@ -0,0 +1,160 @@
+package org.entando.plugin.avatar.security.oauth2;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the token refresh of the {@link AuthorizationHeaderUtil}, against an in-process token endpoint.
+ */
+public class AuthorizationHeaderUtilTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+
+    private HttpServer server;
+
+    private ClientRegistration registration;
+
+    private OAuth2AuthorizedClientService clientService;
+
+    private OAuth2AuthenticationToken authentication;
+
+    private AuthorizationHeaderUtil authorizationHeaderUtil;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/token", exchange -> {
+            int token = tokenRequests.incrementAndGet();
+            try {
+                // long enough for the concurrent requests to find the refresh in flight
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = ("{\"access_token\":\"refreshed-" + token + "\",\"token_type\":\"bearer\",\"expires_in\":300,"
+                + "\"refresh_token\":\"refresh-" + token + "\",\"scope\":\"openid\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        String baseUri = "http://localhost:" + server.getAddress().getPort();
+        registration = ClientRegistration.withRegistrationId("oidc")
+            .clientId("client")
+            .clientSecret("secret")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUriTemplate("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri(baseUri + "/auth")
+            .tokenUri(baseUri + "/token")
+            .build();
+        clientService = new InMemoryOAuth2AuthorizedClientService(new InMemoryClientRegistrationRepository(registration));
+        authentication = new OAuth2AuthenticationToken(
+            new DefaultOAuth2User(Collections.singleton(new SimpleGrantedAuthority("ROLE_USER")),
+                Collections.singletonMap("sub", "user"), "sub"),
+            Collections.singleton(new SimpleGrantedAuthority("ROLE_USER")), "oidc");
+
+        RestTemplateBuilder restTemplateBuilder = new RestTemplateBuilder()
+            .messageConverters(new MappingJackson2HttpMessageConverter());
+        authorizationHeaderUtil = new AuthorizationHeaderUtil(clientService, restTemplateBuilder,
+            new ApplicationProperties(), Runnable::run, meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        SecurityContextHolder.clearContext();
+        authorizationHeaderUtil.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void refreshesExpiredTokenOnceForConcurrentRequests() throws Exception {
+        saveAccessToken("initial", Instant.now().plusSeconds(30));
+
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Optional<String>>> headers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                headers.add(requests.submit(() -> {
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                    try {
+                        return authorizationHeaderUtil.getAuthorizationHeader();
+                    } finally {
+                        SecurityContextHolder.clearContext();
+                    }
+                }));
+            }
+            for (Future<Optional<String>> header : headers) {
+                assertThat(header.get()).contains("Bearer refreshed-1");
+            }
+        } finally {
+            requests.shutdownNow();
+        }
+
+        assertThat(tokenRequests.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("avatar.auth.token.refresh").tags("trigger", "expired", "outcome", "success")
+            .timer().count()).isEqualTo(1);
+        assertThat(clientService.loadAuthorizedClient("oidc", "user").getRefreshToken().getTokenValue())
+            .isEqualTo("refresh-1");
+    }
+
+    @Test
+    public void refreshesTokenAheadOfExpiry() {
+        saveAccessToken("initial", Instant.now().plusSeconds(90));
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+
+        // the current token is still used, while refreshed on the task executor
+        assertThat(authorizationHeaderUtil.getAuthorizationHeader()).contains("Bearer initial");
+        assertThat(tokenRequests.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("avatar.auth.token.refresh").tags("trigger", "ahead", "outcome", "success")
+            .timer().count()).isEqualTo(1);
+
+        assertThat(authorizationHeaderUtil.getAuthorizationHeader()).contains("Bearer refreshed-1");
+        assertThat(tokenRequests.get()).isEqualTo(1);
+    }
+
+    private void saveAccessToken(String value, Instant expiresAt) {
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, value,
+            expiresAt.minusSeconds(300), expiresAt);
+        clientService.saveAuthorizedClient(new OAuth2AuthorizedClient(registration, "user", accessToken,
+            new OAuth2RefreshToken("refresh-0", expiresAt.minusSeconds(300))), authentication);
+    }
+}
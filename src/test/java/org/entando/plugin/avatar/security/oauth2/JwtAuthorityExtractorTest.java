@@ -0,0 +1,108 @@
+package org.entando.plugin.avatar.security.oauth2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.config.EntandoProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the authorities cache of the {@link JwtAuthorityExtractor}.
+ */
+public class JwtAuthorityExtractorTest {
+
+    private static final String CLIENT_ID = "avatar-plugin";
+
+    private EntandoProperties entandoProperties;
+
+    private ApplicationProperties applicationProperties;
+
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        entandoProperties = new EntandoProperties();
+        entandoProperties.setClientId(CLIENT_ID);
+        applicationProperties = new ApplicationProperties();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void cachesAuthoritiesByToken() {
+        JwtAuthorityExtractor extractor = new JwtAuthorityExtractor(entandoProperties, applicationProperties, meterRegistry);
+        Instant expiresAt = Instant.now().plus(5, ChronoUnit.MINUTES);
+
+        Collection<GrantedAuthority> authorities = extractor.extractAuthorities(createJwt("token-1", expiresAt, "admin"));
+        assertThat(authorities).extracting(GrantedAuthority::getAuthority).containsExactly("admin");
+        assertThat(extractor.extractAuthorities(createJwt("token-1", expiresAt, "admin"))).isSameAs(authorities);
+        assertThat(extractor.extractAuthorities(createJwt("token-2", expiresAt, "user")))
+            .extracting(GrantedAuthority::getAuthority).containsExactly("user");
+
+        assertThat(meterRegistry.get("cache.gets").tags("name", "jwt.authorities", "result", "hit")
+            .functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tags("name", "jwt.authorities", "result", "miss")
+            .functionCounter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void keysTokensByIssuerAndId() {
+        JwtAuthorityExtractor extractor = new JwtAuthorityExtractor(entandoProperties, applicationProperties, meterRegistry);
+        Instant expiresAt = Instant.now().plus(5, ChronoUnit.MINUTES);
+
+        // same jti from two realms
+        assertThat(extractor.extractAuthorities(createJwt("https://auth.example.com/realms/a", "token-1", expiresAt, "admin")))
+            .extracting(GrantedAuthority::getAuthority).containsExactly("admin");
+        assertThat(extractor.extractAuthorities(createJwt("https://auth.example.com/realms/b", "token-1", expiresAt, "user")))
+            .extracting(GrantedAuthority::getAuthority).containsExactly("user");
+
+        assertThat(meterRegistry.get("cache.gets").tags("name", "jwt.authorities", "result", "miss")
+            .functionCounter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotCacheExpiredTokens() {
+        JwtAuthorityExtractor extractor = new JwtAuthorityExtractor(entandoProperties, applicationProperties, meterRegistry);
+        Instant expiresAt = Instant.now().minus(30, ChronoUnit.SECONDS);
+
+        Collection<GrantedAuthority> authorities = extractor.extractAuthorities(createJwt("token-1", expiresAt, "admin"));
+        assertThat(authorities).extracting(GrantedAuthority::getAuthority).containsExactly("admin");
+        assertThat(extractor.extractAuthorities(createJwt("token-1", expiresAt, "admin"))).isNotSameAs(authorities);
+    }
+
+    @Test
+    public void cacheCanBeDisabled() {
+        applicationProperties.getAuthorityCache().setMaxSize(0);
+        JwtAuthorityExtractor extractor = new JwtAuthorityExtractor(entandoProperties, applicationProperties, meterRegistry);
+        Instant expiresAt = Instant.now().plus(5, ChronoUnit.MINUTES);
+
+        Collection<GrantedAuthority> authorities = extractor.extractAuthorities(createJwt("token-1", expiresAt, "admin"));
+        assertThat(extractor.extractAuthorities(createJwt("token-1", expiresAt, "admin"))).isNotSameAs(authorities);
+        assertThat(meterRegistry.find("cache.gets").meters()).isEmpty();
+    }
+
+    private static Jwt createJwt(String id, Instant expiresAt, String role) {
+        return createJwt("https://auth.example.com/realms/entando", id, expiresAt, role);
+    }
+
+    private static Jwt createJwt(String issuer, String id, Instant expiresAt, String role) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("iss", issuer);
+        claims.put("jti", id);
+        claims.put("resource_access", Collections.singletonMap(CLIENT_ID,
+            Collections.singletonMap("roles", Collections.singletonList(role))));
+        return new Jwt("token-value-" + issuer + "-" + id, expiresAt.minus(5, ChronoUnit.MINUTES), expiresAt,
+            Collections.singletonMap("alg", "RS256"), claims);
+    }
+}
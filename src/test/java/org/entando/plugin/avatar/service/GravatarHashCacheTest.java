@@ -0,0 +1,28 @@
+package org.entando.plugin.avatar.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the hashing of the {@link GravatarHashCache}.
+ */
+public class GravatarHashCacheTest {
+
+    @Test
+    public void hashIgnoresDefaultLocale() {
+        String expected = DigestUtils.md5DigestAsHex("info@example.com".getBytes(StandardCharsets.UTF_8));
+        Locale defaultLocale = Locale.getDefault();
+        // lower casing "I" gives a dotless "ı" in Turkish
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertThat(GravatarHashCache.hashOf(" INFO@Example.com ")).isEqualTo(expected);
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.entando.plugin.avatar.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.entando.plugin.avatar.client.GravatarClient;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the size clamping and the disk persistence of the {@link GravatarImageCache}.
+ */
+public class GravatarImageCacheTest {
+
+    private static final String HASH = "0bc83cb571cd1c50ba6f3e8a78ef1346";
+
+    private GravatarClient gravatarClient;
+
+    private ApplicationProperties applicationProperties;
+
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        gravatarClient = mock(GravatarClient.class);
+        applicationProperties = new ApplicationProperties();
+        directory = Files.createTempDirectory("gravatar");
+        applicationProperties.getGravatar().getCache().setPersistenceDirectory(directory.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void clampsSizes() {
+        when(gravatarClient.getImage(anyString(), any())).thenReturn(image(600, new byte[16]));
+        GravatarImageCache cache = createCache();
+
+        assertThat(cache.get("http://gravatar/" + HASH + "?s=2048", HASH, 2048).isFound()).isTrue();
+        assertThat(cache.get("http://gravatar/" + HASH + "?s=100000", HASH, 100_000).isFound()).isTrue();
+        verify(gravatarClient, times(1)).getImage(anyString(), any());
+        assertThat(GravatarImageCache.clampSize(0)).isEqualTo(GravatarImageCache.MIN_SIZE);
+        assertThat(GravatarImageCache.clampSize(100_000)).isEqualTo(GravatarImageCache.MAX_SIZE);
+    }
+
+    @Test
+    public void deletesExpiredFilesWhenRead() throws IOException {
+        applicationProperties.getGravatar().getCache().setStaleWhileRevalidateSeconds(0);
+        when(gravatarClient.getImage(anyString(), any())).thenReturn(image(0, new byte[16]));
+        createCache().get("http://gravatar/" + HASH, HASH, 80);
+        assertThat(countFiles()).isEqualTo(1);
+
+        // a restarted instance finds the expired file, Gravatar now forbidding it to store the image
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("no-store");
+        when(gravatarClient.getImage(anyString(), any())).thenReturn(new ResponseEntity<>(new byte[16], headers, HttpStatus.OK));
+        createCache().get("http://gravatar/" + HASH, HASH, 80);
+        assertThat(countFiles()).isEqualTo(0);
+    }
+
+    @Test
+    public void sweepKeepsDirectoryWithinBudget() throws IOException {
+        GravatarImageCache cache = createCache();
+        for (int size = 1; size <= 3; size++) {
+            // the larger, the longer fresh
+            when(gravatarClient.getImage(anyString(), any())).thenReturn(image(600 * size, new byte[1000]));
+            cache.get("http://gravatar/" + HASH + "?s=" + size, HASH, size);
+        }
+        assertThat(countFiles()).isEqualTo(3);
+
+        applicationProperties.getGravatar().getCache().setMaxDiskBytes(2500);
+        cache.sweep();
+        assertThat(countFiles()).isEqualTo(2);
+        try (Stream<Path> files = Files.walk(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString())).doesNotContain(HASH + "-1");
+        }
+
+        // unreadable files go too
+        Files.write(directory.resolve("garbage"), new byte[] {1, 2, 3});
+        cache.sweep();
+        assertThat(countFiles()).isEqualTo(2);
+    }
+
+    private GravatarImageCache createCache() {
+        return new GravatarImageCache(gravatarClient, applicationProperties, Runnable::run, new SimpleMeterRegistry());
+    }
+
+    private static ResponseEntity<byte[]> image(long maxAge, byte[] data) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.IMAGE_PNG);
+        headers.setCacheControl("max-age=" + maxAge);
+        return new ResponseEntity<>(data, headers, HttpStatus.OK);
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
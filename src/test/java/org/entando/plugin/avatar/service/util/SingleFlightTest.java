@@ -0,0 +1,100 @@
+package org.entando.plugin.avatar.service.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the {@link SingleFlight} utility class.
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", meterRegistry);
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = runConcurrently(() -> {
+            calls.incrementAndGet();
+            await(release);
+            return "value";
+        }, release);
+
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("avatar.singleflight.coalesced").tag("call", "test").counter().count())
+            .isEqualTo(CALLERS - 1);
+    }
+
+    @Test
+    public void testConcurrentCallsShareException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = runConcurrently(() -> {
+            await(release);
+            throw new IllegalStateException("upstream");
+        }, release);
+
+        for (Future<String> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    public void testSequentialCallsAreNotCoalesced() {
+        AtomicInteger calls = new AtomicInteger();
+        singleFlight.execute("key", () -> "value" + calls.incrementAndGet());
+        assertThat(singleFlight.execute("key", () -> "value" + calls.incrementAndGet())).isEqualTo("value2");
+        assertThat(meterRegistry.get("avatar.singleflight.coalesced").counter().count()).isZero();
+    }
+
+    /**
+     * Starts all callers, then releases the call once all but the first are waiting on it.
+     */
+    private List<Future<String>> runConcurrently(Supplier<String> call, CountDownLatch release)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("key", call)));
+            }
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (meterRegistry.get("avatar.singleflight.coalesced").counter().count() < CALLERS - 1
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,33 +2,85 @@ package org.entando.plugin.avatar.web.rest;
 
 import org.entando.plugin.avatar.AvatarPluginApp;
 import org.entando.plugin.avatar.client.EntandoAuthClient;
+import org.entando.plugin.avatar.config.ApplicationProperties;
+import org.entando.plugin.avatar.config.AvatarPluginConfig;
 import org.entando.plugin.avatar.config.AvatarPluginConfigManager;
 import org.entando.plugin.avatar.config.TestSecurityConfiguration;
 import org.entando.plugin.avatar.domain.Avatar;
+import org.entando.plugin.avatar.domain.AvatarStyle;
+import org.entando.plugin.avatar.repository.AvatarImageRepository;
+import org.entando.plugin.avatar.repository.AvatarRenditionRepository;
 import org.entando.plugin.avatar.repository.AvatarRepository;
+import org.entando.plugin.avatar.service.AvatarImageCache;
 import org.entando.plugin.avatar.service.AvatarService;
+import org.entando.plugin.avatar.service.AvatarStorage;
+import org.entando.plugin.avatar.service.GravatarHashCache;
+import org.entando.plugin.avatar.service.GravatarImageCache;
+import org.entando.plugin.avatar.service.impl.DefaultAvatarGenerator;
+import org.entando.plugin.avatar.service.impl.FileSystemAvatarStorage;
 import org.entando.plugin.avatar.web.rest.errors.ExceptionTranslator;
+import org.entando.plugin.avatar.web.rest.vm.AvatarBatchRequestVM;
 
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Base64Utils;
+import org.springframework.util.DigestUtils;
 import org.springframework.validation.Validator;
 
+import javax.imageio.ImageIO;
 import javax.persistence.EntityManager;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
 import static org.entando.plugin.avatar.web.rest.TestUtil.createFormattingConversionService;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -41,23 +93,45 @@ public class AvatarResourceIT {
     private static final String DEFAULT_USERNAME = "AAAAAAAAAA";
     private static final String UPDATED_USERNAME = "BBBBBBBBBB";
 
-    private static final byte[] DEFAULT_IMAGE = TestUtil.createByteArray(1, "0");
-    private static final byte[] UPDATED_IMAGE = TestUtil.createByteArray(1, "1");
     private static final String DEFAULT_IMAGE_CONTENT_TYPE = "image/jpg";
     private static final String UPDATED_IMAGE_CONTENT_TYPE = "image/png";
 
+    private static final Long DEFAULT_IMAGE_SIZE = 1L;
+    private static final Long UPDATED_IMAGE_SIZE = 2L;
+
     @Autowired
     private AvatarRepository avatarRepository;
 
+    @Autowired
+    private AvatarImageRepository avatarImageRepository;
+
+    @Autowired
+    private AvatarRenditionRepository avatarRenditionRepository;
+
     @Autowired
     private AvatarService avatarService;
 
     @Autowired
-    private AvatarPluginConfigManager configManager;
+    private AvatarImageCache avatarImageCache;
 
     @Autowired
+    private AvatarPluginConfigManager configManager;
+
+    @Mock
     private EntandoAuthClient authClient;
 
+    @Autowired
+    private GravatarImageCache gravatarImageCache;
+
+    @Autowired
+    private DefaultAvatarGenerator defaultAvatarGenerator;
+
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Autowired
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
@@ -70,6 +144,9 @@ public class AvatarResourceIT {
     @Autowired
     private EntityManager em;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Autowired
     private Validator validator;
 
@@ -80,7 +157,9 @@ public class AvatarResourceIT {
     @BeforeEach
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        final AvatarResource avatarResource = new AvatarResource(avatarService, configManager, authClient);
+        GravatarHashCache gravatarHashCache = new GravatarHashCache(authClient, applicationProperties, meterRegistry);
+        final AvatarResource avatarResource = new AvatarResource(avatarService, configManager, gravatarHashCache,
+            gravatarImageCache, avatarImageCache, defaultAvatarGenerator, applicationProperties);
         this.restAvatarMockMvc = MockMvcBuilders.standaloneSetup(avatarResource)
             .setCustomArgumentResolvers(pageableArgumentResolver)
             .setControllerAdvice(exceptionTranslator)
@@ -98,8 +177,8 @@ public class AvatarResourceIT {
     public static Avatar createEntity(EntityManager em) {
         Avatar avatar = new Avatar()
             .username(DEFAULT_USERNAME)
-            .image(DEFAULT_IMAGE)
-            .imageContentType(DEFAULT_IMAGE_CONTENT_TYPE);
+            .imageContentType(DEFAULT_IMAGE_CONTENT_TYPE)
+            .imageSize(DEFAULT_IMAGE_SIZE);
         return avatar;
     }
     /**
@@ -111,22 +190,646 @@ public class AvatarResourceIT {
     public static Avatar createUpdatedEntity(EntityManager em) {
         Avatar avatar = new Avatar()
             .username(UPDATED_USERNAME)
-            .image(UPDATED_IMAGE)
-            .imageContentType(UPDATED_IMAGE_CONTENT_TYPE);
+            .imageContentType(UPDATED_IMAGE_CONTENT_TYPE)
+            .imageSize(UPDATED_IMAGE_SIZE);
         return avatar;
     }
 
+    /**
+     * Create a PNG image of the given size.
+     */
+    public static byte[] createPng(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", os);
+            return os.toByteArray();
+        }
+    }
+
     @BeforeEach
     public void initTest() {
         avatar = createEntity(em);
     }
 
+    @Test
+    @Transactional
+    public void uploadAndGetImage() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("data", "avatar.png", "image/png", createPng(56, 56));
+
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME).file(file))
+            .andExpect(status().isOk());
+
+        // Metadata and bytes are stored separately
+        Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+        byte[] storedImage = avatarImageRepository.findById(testAvatar.getId()).get().getData();
+        assertThat(testAvatar.getImageWidth()).isEqualTo(56);
+        assertThat(testAvatar.getImageHeight()).isEqualTo(56);
+        assertThat(testAvatar.getImageSize()).isEqualTo(storedImage.length);
+        assertThat(testAvatar.getContentHash()).hasSize(64);
+        assertThat(testAvatar.getLastModified()).isNotNull();
+
+        restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("image/png"))
+            .andExpect(header().string(HttpHeaders.ETAG, "\"" + testAvatar.getContentHash() + "\""))
+            .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+            .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=300, private"))
+            .andExpect(content().bytes(storedImage));
+        assertThat(avatarImageCache.get(DEFAULT_USERNAME, null)).isPresent();
+
+        restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .header(HttpHeaders.IF_NONE_MATCH, "\"" + testAvatar.getContentHash() + "\""))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string(HttpHeaders.ETAG, "\"" + testAvatar.getContentHash() + "\""))
+            .andExpect(content().bytes(new byte[0]));
+
+        restAvatarMockMvc.perform(delete("/api/avatars/image/{username}", DEFAULT_USERNAME))
+            .andExpect(status().isNoContent());
+
+        assertThat(avatarImageCache.get(DEFAULT_USERNAME, null)).isEmpty();
+        assertThat(avatarRepository.findByUsername(DEFAULT_USERNAME)).isEmpty();
+        assertThat(avatarImageRepository.findById(testAvatar.getId())).isEmpty();
+    }
+
+    @Test
+    public void uploadAndStreamImageFromFileSystem() throws Exception {
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStorage(FileSystemAvatarStorage.TYPE);
+        configManager.update(config);
+        try {
+            byte[] png = createPng(56, 56);
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", png)))
+                .andExpect(status().isOk());
+
+            Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+            assertThat(testAvatar.getStorage()).isEqualTo(FileSystemAvatarStorage.TYPE);
+            assertThat(avatarImageRepository.findById(testAvatar.getId())).isEmpty();
+
+            MvcResult result = restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + testAvatar.getContentHash() + "\""))
+                .andReturn();
+            assertThat(result.getResponse().getContentAsByteArray()).hasSize(testAvatar.getImageSize().intValue());
+            assertThat(avatarImageCache.get(DEFAULT_USERNAME, null)).isEmpty();
+
+            restAvatarMockMvc.perform(delete("/api/avatars/image/{username}", DEFAULT_USERNAME))
+                .andExpect(status().isNoContent());
+            assertThat(avatarService.transferImage(testAvatar, AvatarStorage.ORIGINAL, Channels.newChannel(new ByteArrayOutputStream()))).isFalse();
+        } finally {
+            avatarService.deleteByUsername(DEFAULT_USERNAME);
+            config.setStorage(null);
+            configManager.update(config);
+        }
+    }
+
+    @Test
+    public void fileSystemStorageFollowsTransactionOutcome() throws Exception {
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStorage(FileSystemAvatarStorage.TYPE);
+        configManager.update(config);
+        TransactionTemplate rollback = new TransactionTemplate(transactionManager);
+        try {
+            byte[] png = createPng(56, 56);
+            avatarService.upload(DEFAULT_USERNAME, new MockMultipartFile("data", "avatar.png", "image/png", png));
+            Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+
+            // neither a rolled back upload nor a rolled back deletion touch the committed image
+            BufferedImage image = new BufferedImage(56, 56, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, 0xffffff);
+            ByteArrayOutputStream other = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", other);
+            AtomicReference<Avatar> rolledBack = new AtomicReference<>();
+            rollback.execute(status -> {
+                try {
+                    rolledBack.set(avatarService.upload(DEFAULT_USERNAME,
+                        new MockMultipartFile("data", "avatar.png", "image/png", other.toByteArray())));
+                    avatarService.deleteByUsername(DEFAULT_USERNAME);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                status.setRollbackOnly();
+                return null;
+            });
+            assertThat(avatarService.findImageData(testAvatar, AvatarStorage.ORIGINAL)).contains(png);
+            assertThat(avatarService.findImageData(rolledBack.get(), AvatarStorage.ORIGINAL)).isEmpty();
+            Path directory = Paths.get(applicationProperties.getStorage().getFileSystem().getRootDirectory());
+            try (Stream<Path> files = Files.walk(directory)) {
+                assertThat(files.map(Path::toString)).noneMatch(file -> file.endsWith(".tmp"));
+            }
+
+            // until the replacement commits, the previous content hash still reads the previous bytes, and
+            // the new one its own
+            Avatar replaced = new TransactionTemplate(transactionManager).execute(status -> {
+                try {
+                    Avatar replacement = avatarService.upload(DEFAULT_USERNAME,
+                        new MockMultipartFile("data", "avatar.png", "image/png", other.toByteArray()));
+                    assertThat(avatarService.findImageData(testAvatar, AvatarStorage.ORIGINAL)).contains(png);
+                    assertThat(avatarService.findImageData(replacement, AvatarStorage.ORIGINAL))
+                        .contains(other.toByteArray());
+                    return replacement;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            assertThat(replaced.getContentHash()).isNotEqualTo(testAvatar.getContentHash());
+            assertThat(avatarService.findImageData(testAvatar, AvatarStorage.ORIGINAL)).isEmpty();
+            assertThat(avatarService.findImageData(replaced, AvatarStorage.ORIGINAL)).contains(other.toByteArray());
+
+            avatarService.deleteByUsername(DEFAULT_USERNAME);
+            assertThat(avatarService.findImageData(replaced, AvatarStorage.ORIGINAL)).isEmpty();
+        } finally {
+            avatarService.deleteByUsername(DEFAULT_USERNAME);
+            config.setStorage(null);
+            configManager.update(config);
+        }
+    }
+
+    @Test
+    @Transactional
+    public void uploadAndGetRenditions() throws Exception {
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setRenditionSizes(Arrays.asList(24, 128));
+        configManager.update(config);
+        try {
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(112, 56))))
+                .andExpect(status().isBadRequest());
+
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(112, 112))))
+                .andExpect(status().isOk());
+
+            // Scaled down to the configured dimensions, renditions larger than the upload are skipped
+            Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+            assertThat(testAvatar.getImageWidth()).isEqualTo(56);
+            assertThat(testAvatar.getImageHeight()).isEqualTo(56);
+            assertThat(testAvatar.getRenditionSizes()).isEqualTo("24");
+
+            MvcResult result = restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .param("size", "30"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + testAvatar.getContentHash() + "-24\""))
+                .andReturn();
+            BufferedImage rendition = ImageIO.read(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()));
+            assertThat(rendition.getWidth()).isEqualTo(24);
+            assertThat(rendition.getHeight()).isEqualTo(24);
+
+            // the sizes served by the same rendition share their cache entry
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME).param("size", "20"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + testAvatar.getContentHash() + "-24\""));
+            assertThat(avatarImageCache.get(DEFAULT_USERNAME, 24)).isPresent();
+            assertThat(avatarImageCache.get(DEFAULT_USERNAME, 20)).isEmpty();
+            assertThat(avatarImageCache.get(DEFAULT_USERNAME, 30)).isEmpty();
+
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME).param("size", "100"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + testAvatar.getContentHash() + "\""));
+
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME).param("size", "0"))
+                .andExpect(status().isBadRequest());
+        } finally {
+            config.setRenditionSizes(Collections.emptyList());
+            configManager.update(config);
+        }
+    }
+
+    @Test
+    @Transactional
+    public void uploadValidatesImageHeader() throws Exception {
+        double invalidType = rejectedUploads("invalid-type");
+        double wrongDimensions = rejectedUploads("wrong-dimensions");
+        double invalidImage = rejectedUploads("invalid-image");
+
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", "not an image".getBytes())))
+            .andExpect(status().isBadRequest());
+
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(57, 56))))
+            .andExpect(status().isBadRequest());
+
+        // A truncated image is rejected from its header
+        byte[] png = createPng(56, 56);
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", Arrays.copyOf(png, 12))))
+            .andExpect(status().isBadRequest());
+        assertThat(avatarRepository.findByUsername(DEFAULT_USERNAME)).isEmpty();
+
+        // Rejections are counted by reason, with the format sniffed from the upload if any
+        assertThat(rejectedUploads("invalid-type")).isEqualTo(invalidType + 1);
+        assertThat(rejectedUploads("wrong-dimensions")).isEqualTo(wrongDimensions + 1);
+        assertThat(rejectedUploads("invalid-image")).isEqualTo(invalidImage + 1);
+        assertThat(meterRegistry.find("avatar.upload.rejected").tags("format", "unknown", "reason", "invalid-type")
+            .counter()).isNotNull();
+        assertThat(meterRegistry.find("avatar.upload.stage").tags("stage", "header", "format", "png",
+            "outcome", "rejected", "reason", "invalid-image").timer()).isNotNull();
+
+        // The format comes from the content, not from the file name
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.jpg", "image/jpeg", png)))
+            .andExpect(status().isOk());
+        assertThat(avatarRepository.findByUsername(DEFAULT_USERNAME).get().getImageContentType()).isEqualTo("image/png");
+
+        DistributionSummary read = meterRegistry.find("avatar.upload.stage.size")
+            .tags("stage", "read", "format", "png", "outcome", "accepted", "reason", "none").summary();
+        assertThat(read).isNotNull();
+        assertThat(read.max()).isGreaterThanOrEqualTo(png.length);
+    }
+
+    private double rejectedUploads(String reason) {
+        return meterRegistry.find("avatar.upload.rejected").tag("reason", reason).counters().stream()
+            .mapToDouble(Counter::count).sum();
+    }
+
+    @Test
+    @Transactional
+    public void uploadStoresConformingImageAsIs() throws Exception {
+        byte[] png = createPng(56, 56);
+
+        // tEXt chunk inserted right after the IHDR one
+        byte[] text = "Comment\0uploaded from a camera".getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer chunk = ByteBuffer.allocate(12 + text.length).putInt(text.length);
+        chunk.put("tEXt".getBytes(StandardCharsets.US_ASCII)).put(text);
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 4, 4 + text.length);
+        chunk.putInt((int) crc.getValue());
+        ByteArrayOutputStream upload = new ByteArrayOutputStream();
+        upload.write(png, 0, 33);
+        upload.write(chunk.array());
+        upload.write(png, 33, png.length - 33);
+
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", upload.toByteArray())))
+            .andExpect(status().isOk());
+
+        Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+        assertThat(avatarImageRepository.findById(testAvatar.getId()).get().getData()).isEqualTo(png);
+    }
+
+    @Test
+    @Transactional
+    public void uploadReplacesPreviousImage() throws Exception {
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(56, 56))))
+            .andExpect(status().isOk());
+        Avatar first = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+        String firstHash = first.getContentHash();
+
+        BufferedImage image = new BufferedImage(56, 56, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xffffff);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", png.toByteArray())))
+            .andExpect(status().isOk());
+
+        // the test transaction spans both uploads, the image is rewritten with a bulk update
+        em.clear();
+        Avatar second = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(second.getContentHash()).isNotEqualTo(firstHash);
+        assertThat(avatarImageRepository.findById(second.getId()).get().getData()).isEqualTo(png.toByteArray());
+
+        // connections held by uploads and waits for the pool
+        assertThat(meterRegistry.find("avatar.upload.stage").tag("stage", "persist").timer().count()).isGreaterThan(0);
+        assertThat(meterRegistry.find("hikaricp.connections.acquire").timer()).isNotNull();
+        assertThat(meterRegistry.find("hikaricp.connections.usage").timer()).isNotNull();
+    }
+
+    @Test
+    public void uploadRemovesStaleRenditions() throws Exception {
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setRenditionSizes(Arrays.asList(24, 128));
+        configManager.update(config);
+        try {
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(128, 128))))
+                .andExpect(status().isOk());
+            Long id = avatarRepository.findByUsername(DEFAULT_USERNAME).get().getId();
+            assertThat(avatarRenditionRepository.findOneByAvatarIdAndSize(id, 128)).isPresent();
+
+            // too small for the 128 rendition
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(56, 56))))
+                .andExpect(status().isOk());
+
+            assertThat(avatarRepository.findByUsername(DEFAULT_USERNAME).get().getRenditionSizes()).isEqualTo("24");
+            assertThat(avatarRenditionRepository.findOneByAvatarIdAndSize(id, 128)).isEmpty();
+            assertThat(avatarRenditionRepository.findOneByAvatarIdAndSize(id, 24)).isPresent();
+
+            // same for the files of the file system storage
+            config.setStorage(FileSystemAvatarStorage.TYPE);
+            configManager.update(config);
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(128, 128))))
+                .andExpect(status().isOk());
+            Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+            assertThat(avatarRenditionRepository.findOneByAvatarIdAndSize(id, 24)).isEmpty();
+            assertThat(avatarService.findImageData(testAvatar, 128)).isPresent();
+
+            restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .file(new MockMultipartFile("data", "avatar.png", "image/png", createPng(56, 56))))
+                .andExpect(status().isOk());
+            // the same image once scaled down, so the same content hash
+            Avatar reuploaded = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+            assertThat(reuploaded.getContentHash()).isEqualTo(testAvatar.getContentHash());
+            assertThat(avatarService.findImageData(reuploaded, 128)).isEmpty();
+            assertThat(avatarService.findImageData(reuploaded, 24)).isPresent();
+        } finally {
+            avatarService.deleteByUsername(DEFAULT_USERNAME);
+            config.setRenditionSizes(Collections.emptyList());
+            config.setStorage(null);
+            configManager.update(config);
+        }
+    }
+
+    @Test
+    public void getGravatarImage() throws Exception {
+        byte[] png = createPng(56, 56);
+        String hash = DigestUtils.md5DigestAsHex("user@example.com".getBytes());
+        AtomicInteger upstreamRequests = new AtomicInteger();
+        HttpServer gravatar = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        gravatar.createContext("/avatar/", exchange -> {
+            upstreamRequests.incrementAndGet();
+            if (exchange.getRequestURI().getPath().endsWith("/" + hash)) {
+                exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "image/png");
+                exchange.getResponseHeaders().set(HttpHeaders.ETAG, "\"gravatar\"");
+                exchange.getResponseHeaders().set(HttpHeaders.CACHE_CONTROL, "max-age=600");
+                exchange.sendResponseHeaders(200, png.length);
+                exchange.getResponseBody().write(png);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+            exchange.close();
+        });
+        gravatar.start();
+
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStyle(AvatarStyle.GRAVATAR);
+        config.setGravatarUrl("http://localhost:" + gravatar.getAddress().getPort() + "/avatar/");
+        configManager.update(config);
+        applicationProperties.getGravatar().setMode(ApplicationProperties.Gravatar.Mode.PROXY);
+        try {
+            EntandoAuthClient.User user = new EntandoAuthClient.User();
+            user.setEmail("user@example.com");
+            when(authClient.findUserDetail(DEFAULT_USERNAME)).thenReturn(Optional.of(user));
+            EntandoAuthClient.User unknown = new EntandoAuthClient.User();
+            unknown.setEmail("unknown@example.com");
+            when(authClient.findUserDetail(UPDATED_USERNAME)).thenReturn(Optional.of(unknown));
+
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"gravatar\""))
+                .andExpect(content().bytes(png));
+
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", UPDATED_USERNAME))
+                .andExpect(status().isNotFound());
+            assertThat(upstreamRequests.get()).isEqualTo(2);
+
+            // images and misses are both answered from the cache
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("max-age=")))
+                .andExpect(content().bytes(png));
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"gravatar\""))
+                .andExpect(status().isNotModified());
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", UPDATED_USERNAME))
+                .andExpect(status().isNotFound());
+            assertThat(upstreamRequests.get()).isEqualTo(2);
+        } finally {
+            gravatar.stop(0);
+            applicationProperties.getGravatar().setMode(ApplicationProperties.Gravatar.Mode.REDIRECT);
+            configManager.update(AvatarPluginConfig.getDefault());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getGravatarFallsBackToLocalImage() throws Exception {
+        byte[] png = createPng(56, 56);
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", png)))
+            .andExpect(status().isOk());
+
+        HttpServer gravatar = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        gravatar.createContext("/avatar/", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        gravatar.start();
+
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStyle(AvatarStyle.GRAVATAR);
+        config.setGravatarUrl("http://localhost:" + gravatar.getAddress().getPort() + "/avatar/");
+        configManager.update(config);
+        applicationProperties.getGravatar().setMode(ApplicationProperties.Gravatar.Mode.PROXY);
+        try {
+            EntandoAuthClient.User user = new EntandoAuthClient.User();
+            user.setEmail("unavailable@example.com");
+            when(authClient.findUserDetail(DEFAULT_USERNAME)).thenReturn(Optional.of(user));
+
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(avatarService.findImageData(
+                    avatarRepository.findByUsername(DEFAULT_USERNAME).get(), AvatarStorage.ORIGINAL).get()));
+            assertThat(meterRegistry.find("hystrix.circuit.breaker.open").tag("key", "gravatar").gauge()).isNotNull();
+        } finally {
+            gravatar.stop(0);
+            applicationProperties.getGravatar().setMode(ApplicationProperties.Gravatar.Mode.REDIRECT);
+            configManager.update(AvatarPluginConfig.getDefault());
+        }
+    }
+
+    @Test
+    public void getGravatarRedirect() throws Exception {
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStyle(AvatarStyle.GRAVATAR);
+        config.setGravatarUrl("https://gravatar.example.com/avatar");
+        configManager.update(config);
+        try {
+            EntandoAuthClient.User user = new EntandoAuthClient.User();
+            user.setEmail(" User@Example.com ");
+            when(authClient.findUserDetail(DEFAULT_USERNAME)).thenReturn(Optional.of(user));
+            String hash = DigestUtils.md5DigestAsHex("user@example.com".getBytes());
+
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, "https://gravatar.example.com/avatar/" + hash + "?d=404&s=56"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("max-age=")));
+
+            // the hash is known, the auth service isn't called again
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME).param("size", "128"))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, "https://gravatar.example.com/avatar/" + hash + "?d=404&s=128"));
+            verify(authClient, times(1)).findUserDetail(DEFAULT_USERNAME);
+
+            // sizes beyond what Gravatar serves are all the same image
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME).param("size", "100000"))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, "https://gravatar.example.com/avatar/" + hash + "?d=404&s=2048"));
+
+            // list views resolve users in bulk, the cached ones without calling the auth service
+            when(authClient.findUserDetails(Collections.singletonList(UPDATED_USERNAME))).thenReturn(Collections.emptyMap());
+            AvatarBatchRequestVM request = new AvatarBatchRequestVM();
+            request.setUsernames(Arrays.asList(DEFAULT_USERNAME, UPDATED_USERNAME));
+            restAvatarMockMvc.perform(post("/api/avatars/batch")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".url")
+                    .value("https://gravatar.example.com/avatar/" + hash + "?d=404&s=56"))
+                .andExpect(jsonPath("$.missing").value(hasItem(UPDATED_USERNAME)));
+
+            request.setSize(100_000);
+            restAvatarMockMvc.perform(post("/api/avatars/batch")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".url")
+                    .value("https://gravatar.example.com/avatar/" + hash + "?d=404&s=2048"));
+        } finally {
+            configManager.update(AvatarPluginConfig.getDefault());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getDefaultImage() throws Exception {
+        // DEFAULT style: users without image get a generated avatar, which they lose by uploading one
+        MvcResult generated = restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("image/png"))
+            .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("max-age=")))
+            .andReturn();
+        byte[] data = generated.getResponse().getContentAsByteArray();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        assertThat(image.getWidth()).isEqualTo(56);
+        assertThat(image.getHeight()).isEqualTo(56);
+        String etag = generated.getResponse().getHeader(HttpHeaders.ETAG);
+        restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified());
+
+        // the same image is served forever by seed
+        String seed = DefaultAvatarGenerator.seedOf(DEFAULT_USERNAME);
+        restAvatarMockMvc.perform(get("/api/avatars/default/{seed}", seed))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+            .andExpect(header().string(HttpHeaders.ETAG, etag))
+            .andExpect(content().bytes(data));
+        restAvatarMockMvc.perform(get("/api/avatars/default/{seed}", "not-a-seed"))
+            .andExpect(status().isBadRequest());
+
+        // SVG for the clients listing it, PNG for those only accepting any image
+        restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .header(HttpHeaders.ACCEPT, "image/webp,image/svg+xml,image/*;q=0.8"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("image/svg+xml"))
+            .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+            .andExpect(header().string(HttpHeaders.ETAG, not(etag)))
+            .andExpect(content().string(startsWith("<svg ")));
+        restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .header(HttpHeaders.ACCEPT, "image/*"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("image/png"))
+            .andExpect(content().bytes(data));
+
+        byte[] png = createPng(56, 56);
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", png)))
+            .andExpect(status().isOk());
+        restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", DEFAULT_USERNAME))
+            .andExpect(status().isOk())
+            .andExpect(content().bytes(avatarService.findImageData(
+                avatarRepository.findByUsername(DEFAULT_USERNAME).get(), AvatarStorage.ORIGINAL).get()));
+
+        // LOCAL style: no avatar without image
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStyle(AvatarStyle.LOCAL);
+        configManager.update(config);
+        try {
+            restAvatarMockMvc.perform(get("/api/avatars/image/{userId}", UPDATED_USERNAME))
+                .andExpect(status().isNotFound());
+        } finally {
+            configManager.update(AvatarPluginConfig.getDefault());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getAvatarsBatch() throws Exception {
+        byte[] png = createPng(56, 56);
+        restAvatarMockMvc.perform(multipart("/api/avatars/image/{userId}", DEFAULT_USERNAME)
+            .file(new MockMultipartFile("data", "avatar.png", "image/png", png)))
+            .andExpect(status().isOk());
+        Avatar testAvatar = avatarRepository.findByUsername(DEFAULT_USERNAME).get();
+        String etag = "\"" + testAvatar.getContentHash() + "\"";
+
+        AvatarBatchRequestVM request = new AvatarBatchRequestVM();
+        request.setUsernames(Arrays.asList(DEFAULT_USERNAME, UPDATED_USERNAME, DEFAULT_USERNAME));
+        request.setInline(true);
+
+        restAvatarMockMvc.perform(post("/api/avatars/batch")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(request)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".contentType").value("image/png"))
+            .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".etag").value(etag))
+            .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".data")
+                .value(Base64Utils.encodeToString(avatarImageRepository.findById(testAvatar.getId()).get().getData())))
+            .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".url").doesNotExist())
+            // the DEFAULT style gives the users without image their generated avatar
+            .andExpect(jsonPath("$.avatars." + UPDATED_USERNAME + ".url")
+                .value("http://localhost/api/avatars/default/" + DefaultAvatarGenerator.seedOf(UPDATED_USERNAME)))
+            .andExpect(jsonPath("$.missing").isEmpty());
+
+        request.setInline(false);
+        request.setSize(24);
+        restAvatarMockMvc.perform(post("/api/avatars/batch")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(request)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".url")
+                .value("http://localhost/api/avatars/image/" + DEFAULT_USERNAME + "?size=24"))
+            .andExpect(jsonPath("$.avatars." + DEFAULT_USERNAME + ".data").doesNotExist())
+            .andExpect(jsonPath("$.avatars." + UPDATED_USERNAME + ".url")
+                .value("http://localhost/api/avatars/default/" + DefaultAvatarGenerator.seedOf(UPDATED_USERNAME) + "?size=24"));
+
+        // only the LOCAL style leaves them missing
+        AvatarPluginConfig config = configManager.getAvatarPluginConfig();
+        config.setStyle(AvatarStyle.LOCAL);
+        configManager.update(config);
+        try {
+            restAvatarMockMvc.perform(post("/api/avatars/batch")
+                .contentType(TestUtil.APPLICATION_JSON_UTF8)
+                .content(TestUtil.convertObjectToJsonBytes(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.avatars." + UPDATED_USERNAME).doesNotExist())
+                .andExpect(jsonPath("$.missing").value(UPDATED_USERNAME));
+        } finally {
+            configManager.update(AvatarPluginConfig.getDefault());
+        }
+
+        request.setUsernames(IntStream.rangeClosed(0, applicationProperties.getBatch().getMaxSize())
+            .mapToObj(String::valueOf).collect(Collectors.toList()));
+        restAvatarMockMvc.perform(post("/api/avatars/batch")
+            .contentType(TestUtil.APPLICATION_JSON_UTF8)
+            .content(TestUtil.convertObjectToJsonBytes(request)))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     @Transactional
     public void createAvatar() throws Exception {
         int databaseSizeBeforeCreate = avatarRepository.findAll().size();
 
-        // Create the Avatar
+        // Create the Avatar, whose image fields are only written by uploads
+        avatar.storage("unknown").contentHash("0123").imageWidth(56);
         restAvatarMockMvc.perform(post("/api/avatars")
             .contentType(TestUtil.APPLICATION_JSON_UTF8)
             .content(TestUtil.convertObjectToJsonBytes(avatar)))
@@ -137,8 +840,11 @@ public class AvatarResourceIT {
         assertThat(avatarList).hasSize(databaseSizeBeforeCreate + 1);
         Avatar testAvatar = avatarList.get(avatarList.size() - 1);
         assertThat(testAvatar.getUsername()).isEqualTo(DEFAULT_USERNAME);
-        assertThat(testAvatar.getImage()).isEqualTo(DEFAULT_IMAGE);
         assertThat(testAvatar.getImageContentType()).isEqualTo(DEFAULT_IMAGE_CONTENT_TYPE);
+        assertThat(testAvatar.getImageSize()).isNull();
+        assertThat(testAvatar.getImageWidth()).isNull();
+        assertThat(testAvatar.getContentHash()).isNull();
+        assertThat(testAvatar.getStorage()).isNull();
     }
 
     @Test
@@ -192,7 +898,8 @@ public class AvatarResourceIT {
             .andExpect(jsonPath("$.[*].id").value(hasItem(avatar.getId().intValue())))
             .andExpect(jsonPath("$.[*].username").value(hasItem(DEFAULT_USERNAME.toString())))
             .andExpect(jsonPath("$.[*].imageContentType").value(hasItem(DEFAULT_IMAGE_CONTENT_TYPE)))
-            .andExpect(jsonPath("$.[*].image").value(hasItem(Base64Utils.encodeToString(DEFAULT_IMAGE))));
+            .andExpect(jsonPath("$.[*].imageSize").value(hasItem(DEFAULT_IMAGE_SIZE.intValue())))
+            .andExpect(jsonPath("$.[*].image").doesNotExist());
     }
 
     @Test
@@ -208,7 +915,8 @@ public class AvatarResourceIT {
             .andExpect(jsonPath("$.id").value(avatar.getId().intValue()))
             .andExpect(jsonPath("$.username").value(DEFAULT_USERNAME.toString()))
             .andExpect(jsonPath("$.imageContentType").value(DEFAULT_IMAGE_CONTENT_TYPE))
-            .andExpect(jsonPath("$.image").value(Base64Utils.encodeToString(DEFAULT_IMAGE)));
+            .andExpect(jsonPath("$.imageSize").value(DEFAULT_IMAGE_SIZE.intValue()))
+            .andExpect(jsonPath("$.image").doesNotExist());
     }
 
     @Test
@@ -222,19 +930,21 @@ public class AvatarResourceIT {
     @Test
     @Transactional
     public void updateAvatar() throws Exception {
-        // Initialize the database
-        avatarService.save(avatar);
+        // Initialize the database, as an upload to the file system would
+        avatarRepository.saveAndFlush(avatar.storage(FileSystemAvatarStorage.TYPE).contentHash("0123"));
 
         int databaseSizeBeforeUpdate = avatarRepository.findAll().size();
 
-        // Update the avatar
+        // Update the avatar, whose image fields are kept as uploaded
         Avatar updatedAvatar = avatarRepository.findById(avatar.getId()).get();
         // Disconnect from session so that the updates on updatedAvatar are not directly saved in db
         em.detach(updatedAvatar);
         updatedAvatar
             .username(UPDATED_USERNAME)
-            .image(UPDATED_IMAGE)
-            .imageContentType(UPDATED_IMAGE_CONTENT_TYPE);
+            .imageContentType(UPDATED_IMAGE_CONTENT_TYPE)
+            .imageSize(UPDATED_IMAGE_SIZE)
+            .contentHash(null)
+            .storage("unknown");
 
         restAvatarMockMvc.perform(put("/api/avatars")
             .contentType(TestUtil.APPLICATION_JSON_UTF8)
@@ -246,8 +956,10 @@ public class AvatarResourceIT {
         assertThat(avatarList).hasSize(databaseSizeBeforeUpdate);
         Avatar testAvatar = avatarList.get(avatarList.size() - 1);
         assertThat(testAvatar.getUsername()).isEqualTo(UPDATED_USERNAME);
-        assertThat(testAvatar.getImage()).isEqualTo(UPDATED_IMAGE);
         assertThat(testAvatar.getImageContentType()).isEqualTo(UPDATED_IMAGE_CONTENT_TYPE);
+        assertThat(testAvatar.getImageSize()).isEqualTo(DEFAULT_IMAGE_SIZE);
+        assertThat(testAvatar.getContentHash()).isEqualTo("0123");
+        assertThat(testAvatar.getStorage()).isEqualTo(FileSystemAvatarStorage.TYPE);
     }
 
     @Test